@@ -0,0 +1,98 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** Reading and writing blobs in the blob store.  A blob is stored as
+ *  HEADER followed by its contents, deflate-compressed.  Blobs rebuilt
+ *  from deltas in memory are handed out as RAW_HEADER followed by
+ *  their contents.  Blobs written before compression was introduced
+ *  hold the raw contents with no header, and are read as they are.
+ *  @author Elizaveta Belkina
+ */
+class Blob {
+
+    /** Marks a compressed blob: a non-text byte, "GLB" and the format
+     *  version. */
+    static final byte[] HEADER = { (byte) 0x89, 'G', 'L', 'B', 1 };
+
+    /** Marks an uncompressed blob: HEADER with format version 0. */
+    static final byte[] RAW_HEADER = { (byte) 0x89, 'G', 'L', 'B', 0 };
+
+    /** Copies the bytes of SOURCE into TARGET as a compressed blob,
+     *  streaming through a buffer of bounded size, and returns the
+     *  SHA-1 hash of the uncompressed bytes, which is the blob's id. */
+    static String store(File source, File target) {
+        try (InputStream in = Files.newInputStream(source.toPath());
+             OutputStream out = compress(
+                 Files.newOutputStream(target.toPath()))) {
+            return Utils.copyWithSha1(in, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream that writes HEADER to OUT followed by the
+     *  compressed form of everything written to it. */
+    static OutputStream compress(OutputStream out) throws IOException {
+        out.write(HEADER);
+        return new DeflaterOutputStream(
+            new BufferedOutputStream(out, Utils.BUFFER_SIZE));
+    }
+
+    /** Returns a stream of the uncompressed contents of the blob whose
+     *  stored bytes are read from IN, which must support marks. */
+    static InputStream decompress(InputStream in) throws IOException {
+        byte[] header = new byte[HEADER.length];
+        in.mark(HEADER.length);
+        int n = in.readNBytes(header, 0, HEADER.length);
+        if (n == HEADER.length && Arrays.equals(header, HEADER)) {
+            return new InflaterInputStream(in);
+        } else if (n == HEADER.length && Arrays.equals(header, RAW_HEADER)) {
+            return in;
+        }
+        in.reset();
+        return in;
+    }
+
+    /** Returns the stored form of a blob with the given CONTENTS, left
+     *  uncompressed. */
+    static byte[] rawStored(byte[] contents) {
+        byte[] result = new byte[RAW_HEADER.length + contents.length];
+        System.arraycopy(RAW_HEADER, 0, result, 0, RAW_HEADER.length);
+        System.arraycopy(contents, 0, result, RAW_HEADER.length,
+                         contents.length);
+        return result;
+    }
+
+    /** Writes the uncompressed contents of the blob whose stored bytes
+     *  are read from STORED, which must support marks, to TARGET,
+     *  creating or overwriting it.  Closes STORED. */
+    static void copyTo(InputStream stored, File target) {
+        try (InputStream in = decompress(stored);
+             OutputStream out = Files.newOutputStream(target.toPath())) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the uncompressed contents of the blob whose stored bytes
+     *  are read from STORED, which must support marks.  Closes
+     *  STORED. */
+    static byte[] readContents(InputStream stored) {
+        try (InputStream in = decompress(stored)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+}
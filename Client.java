@@ -0,0 +1,84 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+
+/** A thin client of the Gitlet daemon.  Forwards its arguments to the
+ *  daemon serving the repository in the current directory and copies
+ *  back the command's output and exit code, or runs the command itself
+ *  if no daemon is running.  Loads nothing of Gitlet but this class
+ *  when a daemon answers.
+ *  @author Elizaveta Belkina
+ */
+public class Client {
+
+    /** Usage: java gitlet.Client ARGS, where ARGS are as for
+     *  gitlet.Main. */
+    public static void main(String... args) throws ParseException {
+        SocketChannel daemon = connect();
+        if (daemon == null) {
+            Main.main(args);
+            return;
+        }
+        System.exit(forward(daemon, args));
+    }
+
+    /** Returns a connection to the daemon serving the current directory,
+     *  or null if there is none. */
+    static SocketChannel connect() {
+        SocketChannel result = null;
+        try {
+            result = SocketChannel.open(StandardProtocolFamily.UNIX);
+            result.connect(UnixDomainSocketAddress.of(Daemon.SOCKET));
+            return result;
+        } catch (IOException excp) {
+            if (result != null) {
+                try {
+                    result.close();
+                } catch (IOException closeExcp) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Sends the command ARGS to DAEMON, copies its output to the
+     *  standard output and error, and returns its exit code. */
+    static int forward(SocketChannel daemon, String... args) {
+        try (SocketChannel channel = daemon) {
+            DataOutputStream request =
+                new DataOutputStream(Channels.newOutputStream(channel));
+            request.writeInt(args.length);
+            for (String arg : args) {
+                byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+                request.writeInt(bytes.length);
+                request.write(bytes);
+            }
+            request.flush();
+            DataInputStream reply =
+                new DataInputStream(Channels.newInputStream(channel));
+            byte[] out = new byte[reply.readInt()];
+            reply.readFully(out);
+            byte[] err = new byte[reply.readInt()];
+            reply.readFully(err);
+            int exitCode = reply.readInt();
+            System.out.write(out);
+            System.out.flush();
+            System.err.write(err);
+            System.err.flush();
+            return exitCode;
+        } catch (IOException excp) {
+            System.err.println("Lost the connection to the daemon.");
+            return 1;
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Primitives of the compact binary formats of commits and the staging
+ *  area, which replace Java serialization for them.  Numbers are
+ *  unsigned varints: seven bits per byte, least significant first, with
+ *  the top bit set on all bytes but the last.  Strings are a varint
+ *  length and UTF-8 bytes, and ids are their UID_BYTES raw bytes, each
+ *  preceded by a tag telling whether they are null.  Every format
+ *  starts with a version byte, which is never the first byte of a Java
+ *  serialization stream, so files written before can still be told
+ *  apart and read.
+ *  @author Elizaveta Belkina
+ */
+class Codec {
+
+    /** The first two bytes of every Java serialization stream. */
+    static final int JAVA_MAGIC = 0xaced;
+
+    /** Tag of a null string or id. */
+    private static final int NULL = 0;
+
+    /** Tag of a string or of an id stored as its raw bytes. */
+    private static final int PRESENT = 1;
+
+    /** Tag of an id that is not a hexadecimal SHA-1 hash, stored as a
+     *  string. */
+    private static final int OTHER = 2;
+
+    /** Writes data to a stream. */
+    interface Encoder {
+        /** Writes to OUT. */
+        void encode(DataOutputStream out) throws IOException;
+    }
+
+    /** Returns the bytes written by ENCODER. */
+    static byte[] encode(Encoder encoder) {
+        Output bytes = new Output();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            encoder.encode(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns a stream reading BYTES. */
+    static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new Input(bytes));
+    }
+
+    /** A ByteArrayOutputStream without the locking of each write, which
+     *  costs more than the write itself for the single bytes of
+     *  varints and tags. */
+    private static class Output extends ByteArrayOutputStream {
+
+        /** An empty stream of the default capacity. */
+        Output() {
+            super(INITIAL_SIZE);
+        }
+
+        @Override
+        public void write(int b) {
+            reserve(1);
+            buf[count] = (byte) b;
+            count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            reserve(len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        /** Makes room for N more bytes. */
+        private void reserve(int n) {
+            if (count + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length,
+                                                  count + n));
+            }
+        }
+
+        /** Initial capacity, enough for a commit. */
+        private static final int INITIAL_SIZE = 256;
+    }
+
+    /** A ByteArrayInputStream without the locking of each read. */
+    private static class Input extends ByteArrayInputStream {
+
+        /** A stream reading BYTES. */
+        Input(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public int read() {
+            if (pos >= count) {
+                return -1;
+            }
+            int result = buf[pos] & 0xff;
+            pos += 1;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= count) {
+                return -1;
+            }
+            int n = Math.min(len, count - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+
+    /** Returns true iff STREAM, which must support marks, continues
+     *  with a Java serialization stream.  Leaves STREAM where it was. */
+    static boolean isJavaSerialized(InputStream stream) {
+        try {
+            stream.mark(2);
+            int first = stream.read(), second = stream.read();
+            stream.reset();
+            return (first << 8 | second) == JAVA_MAGIC;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff BYTES hold a Java serialization stream. */
+    static boolean isJavaSerialized(byte[] bytes) {
+        return bytes.length >= 2
+            && ((bytes[0] & 0xff) << 8 | bytes[1] & 0xff) == JAVA_MAGIC;
+    }
+
+    /** Reads the version byte from IN and throws
+     *  IllegalArgumentException, naming WHAT is being read, unless it is
+     *  VERSION. */
+    static void checkVersion(DataInput in, int version, String what)
+            throws IOException {
+        int found = in.readUnsignedByte();
+        if (found != version) {
+            throw Utils.error("Unknown %s format %d.", what, found);
+        }
+    }
+
+    /** Writes the non-negative number N to OUT as a varint. */
+    static void writeVarint(DataOutput out, long n) throws IOException {
+        while ((n & ~0x7fL) != 0) {
+            out.writeByte((int) (n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte((int) n);
+    }
+
+    /** Returns the varint read from IN. */
+    static long readVarint(DataInput in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw Utils.error("Malformed varint.");
+    }
+
+    /** Returns the varint read from IN, which must fit in an int. */
+    static int readLength(DataInput in) throws IOException {
+        long result = readVarint(in);
+        if (result > Integer.MAX_VALUE) {
+            throw Utils.error("Malformed length.");
+        }
+        return (int) result;
+    }
+
+    /** Writes S, which may be null, to OUT. */
+    static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(PRESENT);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /** Returns the string, possibly null, read from IN. */
+    static String readString(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag == NULL) {
+            return null;
+        }
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Writes ID, an object id that may be null, to OUT. */
+    static void writeId(DataOutput out, String id) throws IOException {
+        if (id == null) {
+            out.writeByte(NULL);
+        } else if (isUid(id)) {
+            out.writeByte(PRESENT);
+            out.write(Utils.uidBytes(id));
+        } else {
+            out.writeByte(OTHER);
+            writeString(out, id);
+        }
+    }
+
+    /** Returns the object id, possibly null, read from IN. */
+    static String readId(DataInput in) throws IOException {
+        switch (in.readUnsignedByte()) {
+        case NULL:
+            return null;
+        case PRESENT:
+            byte[] bytes = new byte[Utils.UID_BYTES];
+            in.readFully(bytes);
+            return Utils.uidString(bytes, 0);
+        case OTHER:
+            return readString(in);
+        default:
+            throw Utils.error("Malformed id.");
+        }
+    }
+
+    /** Writes FILES, which maps names to ids, to OUT. */
+    static void writeIds(DataOutput out, Map<String, String> files)
+            throws IOException {
+        writeVarint(out, files.size());
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            writeString(out, file.getKey());
+            writeId(out, file.getValue());
+        }
+    }
+
+    /** Returns the map from names to ids read from IN. */
+    static TreeMap<String, String> readIds(DataInput in)
+            throws IOException {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (int n = readLength(in); n > 0; n -= 1) {
+            result.put(readString(in), readId(in));
+        }
+        return result;
+    }
+
+    /** Returns true iff ID is a lower-case hexadecimal SHA-1 hash, which
+     *  uidString reproduces from its bytes. */
+    private static boolean isUid(String id) {
+        if (id.length() != Utils.UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i += 1) {
+            char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -1,14 +1,28 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.ParseException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayDeque;
@@ -31,8 +45,8 @@ public class Command {
     /** Head commit. */
     static final File HEAD = new File(CWD + "/" + ".gitlet/head.txt");
 
-    /** Master branch. */
-    static final File MASTER = new File(CWD + "/" + ".gitlet/master.txt");
+    /** Namespace of the branches. */
+    static final File REFS = new File(CWD + "/" + ".gitlet/refs");
 
     /** Blobs. */
     static final File BLOBS = new File(CWD + "/" + ".gitlet/blobs");
@@ -40,18 +54,309 @@ public class Command {
     /** Commits. */
     static final File COMMITS = new File(CWD + "/" + ".gitlet/commits");
 
+    /** Trees. */
+    static final File TREES = new File(CWD + "/" + ".gitlet/trees");
+
+    /** Blob store. */
+    static final ObjectStore BLOB_STORE = new ObjectStore(BLOBS);
+
+    /** Commit store. */
+    static final ObjectStore COMMIT_STORE = new ObjectStore(COMMITS);
+
+    /** Tree store. */
+    static final ObjectStore TREE_STORE = new ObjectStore(TREES);
+
     /** Current branch. */
     static final File CURRENT_BRANCH = new File(CWD
             + "/" + ".gitlet/currbranch.txt");
 
+    /** Commit graph. */
+    static final File COMMIT_GRAPH = new File(CWD
+            + "/" + ".gitlet/commit-graph");
+
+    /** Sorted table of commit ids. */
+    static final File COMMIT_IDS = new File(CWD
+            + "/" + ".gitlet/commit-ids");
+
+    /** Journal of commits in the order they were made. */
+    static final File COMMIT_JOURNAL = new File(CWD
+            + "/" + ".gitlet/commit-journal");
+
+    /** Index from commit messages to commit ids. */
+    static final File MESSAGE_INDEX = new File(CWD
+            + "/" + ".gitlet/messages");
+
     /** Staging Area. */
     private static Index stagingArea = new Index();
 
+    /** The branches, once opened. */
+    private static Refs branches;
+
+    /** The commit graph, once opened. */
+    private static CommitGraph commitGraph;
+
+    /** The commit id table, once opened. */
+    private static CommitIds commitIds;
+
+    /** Size in bytes from which working files are mapped into memory,
+     *  rather than read, to be diffed. */
+    static final long MAP_THRESHOLD = 1 << 20;
+
+    /** Number of deserialized commits kept in COMMIT_CACHE. */
+    static final int COMMIT_CACHE_SIZE = 1024;
+
+    /** Recently read commits, by id.  A commit never changes under its
+     *  id, so moving HEAD or a branch cannot make an entry stale; the
+     *  commits handed out must not be modified. */
+    private static final LruCache<String, Commit> COMMIT_CACHE =
+        new LruCache<>(COMMIT_CACHE_SIZE, commit -> 1);
+
+    /** Returns the commit at HEAD.  HEAD itself is read on every call,
+     *  so the result follows ref updates. */
     public static Commit getCommit() {
         String commitName = Utils.readContentsAsString(HEAD);
-        File commitFile = new File(CWD + "/" + ".gitlet/commits/" + commitName);
-        Commit currentCommit = Utils.readObject(commitFile, Commit.class);
-        return currentCommit;
+        return readCommit(commitName);
+    }
+
+    /** Returns the commit stored under the id COMMITNAME, deserializing
+     *  it only if it is not cached. */
+    public static Commit readCommit(String commitName) {
+        Commit commit = COMMIT_CACHE.get(commitName);
+        if (commit == null) {
+            commit = Commit.read(commitName, COMMIT_STORE);
+            COMMIT_CACHE.put(commitName, commit);
+        }
+        return commit;
+    }
+
+    /** Traces the hits and misses of the commit cache so far. */
+    static void traceCaches() {
+        long hits = COMMIT_CACHE.hits(), misses = COMMIT_CACHE.misses();
+        Utils.trace("commit cache: %d hits, %d misses (%.0f%% hit rate).",
+                hits, misses,
+                hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses));
+    }
+
+    /** Returns the id of the root tree of COMMIT.  For a commit made
+     *  before trees, the trees are built from its contents and stored
+     *  first. */
+    static String treeOf(Commit commit) {
+        String tree = commit.getTree();
+        if (tree == null) {
+            tree = Tree.write(commit.getContents(), TREE_STORE);
+        }
+        return tree;
+    }
+
+    /** Returns every file tracked by COMMIT, mapped to its blob, in a
+     *  map the caller may modify. */
+    static TreeMap<String, String> trackedFiles(Commit commit) {
+        if (commit.getTree() == null) {
+            return new TreeMap<>(commit.getContents());
+        }
+        TreeMap<String, String> result = new TreeMap<>();
+        Tree.flatten(commit.getTree(), TREE_STORE, result);
+        return result;
+    }
+
+    /** Returns the blob of the file at PATH in COMMIT, or "" if COMMIT
+     *  does not track it. */
+    static String trackedBlob(Commit commit, String path) {
+        if (commit.getTree() == null) {
+            return commit.getBlob(path);
+        }
+        String blob = Tree.blob(commit.getTree(), path, TREE_STORE);
+        return blob == null ? "" : blob;
+    }
+
+    /** Deletes the working file at PATH, if there is one, and then any
+     *  directories it leaves empty. */
+    static void deleteWorkingFile(String path) {
+        File file = new File(CWD, path);
+        if (!file.isFile()) {
+            return;
+        }
+        file.delete();
+        for (File dir = file.getParentFile(); !dir.equals(CWD)
+                && dir.delete(); dir = dir.getParentFile()) {
+            continue;
+        }
+    }
+
+    /** Returns the branches, first moving those of a repository made
+     *  before they had a namespace of their own into it. */
+    static Refs branches() {
+        if (branches == null) {
+            branches = new Refs(REFS);
+            if (!branches.exists()) {
+                migrateBranches();
+            }
+        }
+        return branches;
+    }
+
+    /** Packs the branches that older Gitlets kept as files NAME.txt in
+     *  the .gitlet directory, beside HEAD and the staging area, into
+     *  the namespace of branches, and then deletes those files. */
+    private static void migrateBranches() {
+        TreeMap<String, String> legacy = new TreeMap<>();
+        ArrayList<File> files = new ArrayList<>();
+        for (String filename : Utils.plainFilenamesIn(GIT)) {
+            File file = new File(GIT, filename);
+            if (filename.endsWith(".txt") && !file.equals(HEAD)
+                    && !file.equals(CURRENT_BRANCH) && !file.equals(INDEX)) {
+                String id = Utils.readContentsAsString(file);
+                if (!id.equals("")) {
+                    legacy.put(filename.substring(0,
+                            filename.length() - ".txt".length()), id);
+                }
+                files.add(file);
+            }
+        }
+        branches.write(legacy, null);
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /** Returns the commit graph, building it from the commits in the
+     *  repository if it does not exist yet or is in an older format. */
+    static CommitGraph graph() {
+        if (commitGraph == null) {
+            if (CommitGraph.current(COMMIT_GRAPH)) {
+                commitGraph = new CommitGraph(COMMIT_GRAPH);
+            } else {
+                rebuildGraph();
+            }
+        }
+        return commitGraph;
+    }
+
+    /** Rewrites the commit graph from the commits in the repository,
+     *  built in memory and written once. */
+    static void rebuildGraph() {
+        CommitGraph graph = CommitGraph.building(COMMIT_GRAPH);
+        commitGraph = graph;
+        ArrayDeque<String> commits = new ArrayDeque<>();
+        for (String filename : COMMIT_STORE.ids()) {
+            commits.push(filename);
+            while (!commits.isEmpty()) {
+                String commitName = commits.peek();
+                if (graph.contains(commitName)) {
+                    commits.pop();
+                    continue;
+                }
+                Commit commit = readCommit(commitName);
+                boolean parentsAdded = true;
+                for (String parent : new String[] {
+                        commit.getParent(), commit.getMergeParent()}) {
+                    if (parent != null && !graph.contains(parent)) {
+                        commits.push(parent);
+                        parentsAdded = false;
+                    }
+                }
+                if (parentsAdded) {
+                    commits.pop();
+                    graph.add(commit);
+                }
+            }
+        }
+        graph.write();
+    }
+
+    /** Forgets the cached commits and the commit graph, the commit id
+     *  table and the packs opened so far, so that they are read again
+     *  from disk when next used, after another process may have changed
+     *  them. */
+    static void invalidateCaches() {
+        COMMIT_CACHE.clear();
+        branches = null;
+        commitGraph = null;
+        commitIds = null;
+        BLOB_STORE.invalidate();
+        TREE_STORE.invalidate();
+        COMMIT_STORE.invalidate();
+    }
+
+    /** Returns the commit id table, building it from the commits in
+     *  the repository if it does not exist yet or is in an older
+     *  format. */
+    static CommitIds commitIds() {
+        if (commitIds == null) {
+            if (!CommitIds.current(COMMIT_IDS)) {
+                CommitIds.write(COMMIT_IDS, COMMIT_STORE.ids());
+            }
+            commitIds = new CommitIds(COMMIT_IDS);
+        }
+        return commitIds;
+    }
+
+    /** Returns the commit journal, building it and the message index
+     *  from the commits in the repository if it does not exist yet or
+     *  is in an older format. */
+    static CommitJournal journal() {
+        if (!CommitJournal.current(COMMIT_JOURNAL)) {
+            rebuildJournal();
+            MessageIndex.write(MESSAGE_INDEX,
+                               new CommitJournal(COMMIT_JOURNAL));
+        }
+        return new CommitJournal(COMMIT_JOURNAL);
+    }
+
+    /** Rewrites the commit journal from the commits in the repository,
+     *  in CommitJournal.ORDER, as appending them would have.  The
+     *  commits are read in parallel. */
+    static void rebuildJournal() {
+        List<CommitJournal.Entry> entries = ParallelScan.map(
+                COMMIT_STORE.unorderedIds(),
+                commitName -> new CommitJournal.Entry(readCommit(commitName)));
+        entries.sort(CommitJournal.ORDER);
+        CommitJournal.write(COMMIT_JOURNAL, entries);
+    }
+
+    /** Returns the message index, building it from the commit journal if
+     *  it does not exist yet. */
+    static MessageIndex messageIndex() {
+        CommitJournal journal = journal();
+        if (!MESSAGE_INDEX.exists()) {
+            MessageIndex.write(MESSAGE_INDEX, journal);
+        }
+        return new MessageIndex(MESSAGE_INDEX);
+    }
+
+    /** Records the newly stored COMMIT in the commit graph, the commit
+     *  id table, the commit journal and the message index.  A commit
+     *  already in the message index, because it was just rebuilt or
+     *  the commit was made before, is not journaled again. */
+    static void recordCommit(Commit commit) {
+        graph().add(commit);
+        commitIds().add(commit.getId());
+        MessageIndex messages = messageIndex();
+        if (!messages.ids(commit.getMessage()).contains(commit.getId())) {
+            CommitJournal journal = journal();
+            if (journal.append(commit)) {
+                messages.add(commit.getMessage(), commit.getId());
+            } else {
+                ArrayList<String> ids = new ArrayList<>();
+                for (CommitJournal.Entry entry : journal.entries()) {
+                    if (entry.getMessage().equals(commit.getMessage())) {
+                        ids.add(entry.getId());
+                    }
+                }
+                messages.set(commit.getMessage(), ids);
+            }
+        }
+    }
+
+    /** Rewrites the commit graph, the commit id table, the commit
+     *  journal and the message index from the commits in the
+     *  repository. */
+    static void rebuildIndexes() {
+        rebuildGraph();
+        CommitIds.write(COMMIT_IDS, COMMIT_STORE.ids());
+        commitIds = null;
+        rebuildJournal();
+        MessageIndex.write(MESSAGE_INDEX, journal());
     }
 
     public static void init() {
@@ -62,68 +367,197 @@ public class Command {
             GIT.mkdir();
             BLOBS.mkdir();
             COMMITS.mkdir();
+            TREES.mkdir();
 
             LOGS.mkdir();
             stagingArea = new Index();
             ZoneId zone = ZoneId.systemDefault();
             Commit initial = new Commit("initial commit", null,
                     "1970-01-01 00:00:00", null);
+            initial.setTree(Tree.write(new TreeMap<>(), TREE_STORE));
+
 
+            String commitName = initial.createId();
 
-            String commitName = Utils.sha1(Utils.serialize(initial));
-            File initialCommit = new File(
-                    CWD + "/" + ".gitlet/commits/" + commitName);
+            String currentBranch = "master";
+            Transaction transaction = Transaction.begin();
+            Commit.write(initial, COMMIT_STORE);
+            recordCommit(initial);
+            transaction.setRef(CURRENT_BRANCH, currentBranch);
+            branches().set(transaction, currentBranch, commitName);
+            transaction.setRef(HEAD, commitName);
+            transaction.commit();
+            stagingArea.write(INDEX);
+        }
 
-            try {
-                HEAD.createNewFile();
-                MASTER.createNewFile();
-                INDEX.createNewFile();
-                initialCommit.createNewFile();
-            } catch (IOException e) {
-                e.printStackTrace();
+    }
+
+    /** Stages the files named by FILENAMES, each a file, a directory,
+     *  whose files are all added, or a glob pattern matched against the
+     *  paths of the working files.  The files are hashed, and new blobs
+     *  stored, in parallel; the staging area is then updated file by
+     *  file and written once.  Nothing is staged if any of FILENAMES
+     *  names no file. */
+    public static void add(String... filenames) {
+        stagingArea = Index.read(INDEX);
+        TreeSet<String> paths = new TreeSet<>();
+        for (String filename : filenames) {
+            if (!matchWorkingFiles(filename, paths)) {
+                System.out.println("File does not exist.");
+                return;
+            }
+        }
+        List<HashedFile> hashed = ParallelScan.map(
+                new ArrayList<>(paths), Command::hashFile);
+        Commit currentCommit = getCommit();
+        Transaction transaction = Transaction.begin();
+        try {
+            for (HashedFile file : hashed) {
+                String filename = file._name;
+                String blob = file._blob;
+                String committed = trackedBlob(currentCommit, filename);
+                if (file._pending != null) {
+                    stagingArea.cacheBlob(filename, file._stat, blob);
+                }
+                if (committed.equals(blob)
+                        && stagingArea.fileExists(filename)) {
+                    stagingArea.remove((filename));
+                } else if (stagingArea.fileExistsToDelete(filename)) {
+                    stagingArea.remove(filename);
+                } else if (!committed.equals(blob)) {
+                    stagingArea.toStage(filename, blob);
+                    if (file._pending != null) {
+                        BLOB_STORE.keep(file._pending, blob);
+                    }
+                }
             }
+        } finally {
+            for (HashedFile file : hashed) {
+                if (file._pending != null) {
+                    file._pending.delete();
+                }
+            }
+        }
 
-            String currentBranch = "master";
-            Utils.writeContents(CURRENT_BRANCH, currentBranch);
+        transaction.commit();
+        stagingArea.write(INDEX);
+    }
 
-            Utils.writeObject(INDEX, stagingArea);
-            Utils.writeContents(initialCommit, Utils.serialize(initial));
-            Utils.writeContents(MASTER, commitName);
-            Utils.writeContents(HEAD, commitName);
+    /** A working file hashed for add. */
+    private static class HashedFile {
+
+        /** The working file NAME, whose stat data was STAT before it was
+         *  read, holding BLOB.  PENDING is the blob just stored in a
+         *  temporary file, or null if the blob was known already. */
+        HashedFile(String name, FileStat stat, String blob, File pending) {
+            _name = name;
+            _stat = stat;
+            _blob = blob;
+            _pending = pending;
         }
 
+        /** Path of the file relative to the working directory. */
+        private final String _name;
+
+        /** Stat data of the file before it was read. */
+        private final FileStat _stat;
+
+        /** Id of the blob holding the file's contents. */
+        private final String _blob;
+
+        /** Temporary file holding the newly stored blob, or null. */
+        private final File _pending;
     }
 
-    public static void add(String filename) {
-        stagingArea = Utils.readObject(INDEX, Index.class);
-        File newFile = new File(CWD + "/" + filename);
-        boolean fileInDir = new File(CWD, filename).exists();
-        if (!fileInDir) {
-            System.out.println("File does not exist.");
+    /** Returns the blob of the working file FILENAME, taken from the stat
+     *  cache of stagingArea if the blob is already stored, and otherwise
+     *  stored in a new temporary file of BLOB_STORE.  Safe to call from
+     *  several threads while stagingArea is not being modified. */
+    private static HashedFile hashFile(String filename) {
+        File file = new File(CWD, filename);
+        FileStat stat = FileStat.of(file);
+        String blob = stagingArea.cachedBlob(filename, stat);
+        if (blob != null && BLOB_STORE.contains(blob)) {
+            return new HashedFile(filename, stat, blob, null);
+        }
+        File pending = BLOB_STORE.newTempFile();
+        try {
+            blob = Blob.store(file, pending);
+        } catch (RuntimeException excp) {
+            pending.delete();
+            throw excp;
+        }
+        return new HashedFile(filename, stat, blob, pending);
+    }
+
+    /** Adds to PATHS the paths, relative to the working directory, of
+     *  the working files named by PATTERN: a file, a directory, standing
+     *  for every file under it, or a glob pattern if it contains any of
+     *  the characters "*?[{".  Returns false if PATTERN names no
+     *  files. */
+    static boolean matchWorkingFiles(String pattern, TreeSet<String> paths) {
+        Path root = CWD.toPath();
+        List<Path> files;
+        if (pattern.matches(".*[*?\\[{].*")) {
+            PathMatcher matcher = root.getFileSystem()
+                    .getPathMatcher("glob:" + pattern);
+            files = new ArrayList<>();
+            for (Path file : workingFiles(root)) {
+                if (matcher.matches(root.relativize(file))) {
+                    files.add(file);
+                }
+            }
         } else {
-            String blob = Utils.sha1(Utils.readContentsAsString(newFile));
-            Commit currentCommit = getCommit();
-            if (currentCommit.getBlob(filename).equals(blob)
-                    && stagingArea.fileExists(filename)) {
-                stagingArea.remove((filename));
-            } else if (stagingArea.fileExistsToDelete(filename)) {
-                stagingArea.remove(filename);
-            } else if (currentCommit.getBlob(filename).equals(blob)) {
-                return;
+            Path named = root.resolve(pattern).normalize();
+            if (Files.isDirectory(named)) {
+                files = workingFiles(named);
+            } else if (Files.isRegularFile(named)) {
+                files = List.of(named);
             } else {
-                stagingArea.toStage(filename, blob);
-                File newBlob = new File(
-                        CWD + "/.gitlet/blobs/" + blob + ".txt");
-                try {
-                    newBlob.createNewFile();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                Utils.writeContents(newBlob, Utils.readContents(newFile));
+                return false;
             }
         }
+        for (Path file : files) {
+            paths.add(root.relativize(file).toString()
+                    .replace(File.separatorChar, '/'));
+        }
+        return !files.isEmpty();
+    }
+
+    /** Returns the regular files under DIR, outside of the .gitlet
+     *  directory. */
+    static List<Path> workingFiles(Path dir) {
+        ArrayList<Path> result = new ArrayList<>();
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(
+                        Path subdir, BasicFileAttributes attrs) {
+                    return subdir.equals(GIT.toPath())
+                            ? FileVisitResult.SKIP_SUBTREE
+                            : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file,
+                        BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        result.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
 
-        Utils.writeObject(INDEX, stagingArea);
+    /** Writes the contents of BLOB to FILE, creating it and its
+     *  directory or overwriting it. */
+    static void writeBlob(String blob, File file) {
+        file.getParentFile().mkdirs();
+        Blob.copyTo(BLOB_STORE.open(blob), file);
     }
 
     public static void commit(String message) {
@@ -135,62 +569,39 @@ public class Command {
             return;
         }
         Commit newCommit = new Commit(message,
-                getCommit(), dateTime.format(now), null);
+                Utils.readContentsAsString(HEAD), dateTime.format(now), null);
 
-        stagingArea = Utils.readObject(INDEX, Index.class);
+        stagingArea = Index.read(INDEX);
         if (stagingArea.empty()) {
             System.out.println("No changes added to the commit.");
             return;
         }
-        @SuppressWarnings({"unchecked"})
-        TreeMap<String, String> trackedFiles = (TreeMap<String, String>)
-                getCommit().getContents().clone();
-        TreeMap<String, String> commitFiles = getCommit().getContents();
-        @SuppressWarnings({"unchecked"})
-        TreeMap<String, String> add = (TreeMap<String, String>)
-                stagingArea.getAdd().clone();
-        TreeMap<String, String> remove = stagingArea.getRemove();
-
-        for (Map.Entry<String, String> pair : commitFiles.entrySet()) {
-            String filename = pair.getKey();
-            if (add.containsKey(filename)) {
-                trackedFiles.remove(filename);
-                trackedFiles.put(pair.getKey(), add.get(filename));
-                add.remove(filename);
-            } else if (remove.containsKey(filename)) {
-                trackedFiles.remove(filename);
-            }
-        }
-        if (!add.isEmpty()) {
-            for (Map.Entry<String, String> pair : add.entrySet()) {
-                trackedFiles.put(pair.getKey(), pair.getValue());
-            }
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (String filename : stagingArea.getRemove().keySet()) {
+            changes.put(filename, null);
         }
-        newCommit.setContents(trackedFiles);
+        changes.putAll(stagingArea.getAdd());
+        Transaction transaction = Transaction.begin();
+        newCommit.setTree(Tree.update(treeOf(getCommit()), changes,
+                TREE_STORE));
 
-        String commitName = Utils.sha1(Utils.serialize(newCommit));
-        File commitFile = new File(CWD + "/.gitlet/commits/" + commitName);
+        String commitName = newCommit.createId();
         String currentBranch = Utils.readContentsAsString(CURRENT_BRANCH);
-        File branchPointer = new File(CWD + "/.gitlet/"
-                + currentBranch + ".txt");
-        try {
-            commitFile.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
 
-        Utils.writeObject(commitFile, newCommit);
+        Commit.write(newCommit, COMMIT_STORE);
+        recordCommit(newCommit);
+        branches().set(transaction, currentBranch, commitName);
+        transaction.setRef(HEAD, commitName);
+        transaction.commit();
         stagingArea.reset();
-        Utils.writeObject(INDEX, stagingArea);
-        Utils.writeContents(HEAD, commitName);
-        Utils.writeContents(branchPointer, commitName);
+        stagingArea.write(INDEX);
     }
 
     public static void rm(String filename) {
-        stagingArea = Utils.readObject(INDEX, Index.class);
+        stagingArea = Index.read(INDEX);
 
-        if (!stagingArea.fileExists(filename)
-                && !getCommit().getContents().containsKey(filename)) {
+        String blob = trackedBlob(getCommit(), filename);
+        if (!stagingArea.fileExists(filename) && blob.equals("")) {
             System.out.println("No reason to remove the file.");
             return;
         }
@@ -199,14 +610,12 @@ public class Command {
             stagingArea.remove(filename);
         }
 
-        if (getCommit().getContents().containsKey(filename)) {
-            String blob = getCommit().getBlob(filename);
+        if (!blob.equals("")) {
             stagingArea.toRemove(filename, blob);
-            File removeFile = new File(CWD + "/" + filename);
-            Utils.restrictedDelete(removeFile);
+            deleteWorkingFile(filename);
         }
 
-        Utils.writeObject(INDEX, stagingArea);
+        stagingArea.write(INDEX);
     }
 
     public static void log() throws ParseException {
@@ -215,40 +624,31 @@ public class Command {
             System.out.println("Not in an initialized Gitlet directory.");
             return;
         }
-        Commit currentCommit = getCommit();
-        while (currentCommit != null) {
-            String commitName = Utils.sha1(Utils.serialize(currentCommit));
-            currentCommit.printCommit(commitName);
-            currentCommit = currentCommit.getParent();
+        String commitName = Utils.readContentsAsString(HEAD);
+        CommitGraph graph = graph();
+        while (commitName != null) {
+            readCommit(commitName).printCommit(commitName);
+            commitName = graph.parent(commitName);
         }
     }
 
     public static void globalLog() throws ParseException {
-        File dir = new File(CWD + "/" + ".gitlet/commits");
-        List<String> filenames = Utils.plainFilenamesIn(dir);
-        for (String filename : filenames) {
-            File commitFile = new File(CWD + "/"
-                    + ".gitlet/commits/" + filename);
-            Commit commit = Utils.readObject(commitFile, Commit.class);
-            commit.printCommit(filename);
+        try (CommitJournal.Reader entries = journal().reader()) {
+            for (CommitJournal.Entry entry = entries.next(); entry != null;
+                    entry = entries.next()) {
+                Commit.printCommit(entry.getId(), entry.getTimestamp(),
+                        entry.getMessage());
+            }
         }
     }
 
     public static void find(String commitMessage) {
-        File dir = new File(CWD + "/" + ".gitlet/commits");
-        List<String> filenames = Utils.plainFilenamesIn(dir);
-        boolean commitExists = false;
-        for (String filename : filenames) {
-            File commitFile = new File(CWD + "/"
-                    + ".gitlet/commits/" + filename);
-            Commit commit = Utils.readObject(commitFile, Commit.class);
-            if (commit.getMessage().equals(commitMessage)) {
-                System.out.println(filename);
-                commitExists = true;
-            }
+        List<String> commits = messageIndex().ids(commitMessage);
+        for (String commitName : commits) {
+            System.out.println(commitName);
         }
 
-        if (!commitExists) {
+        if (commits.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
@@ -260,30 +660,22 @@ public class Command {
             return;
         }
         String currentBranch = Utils.readContentsAsString(CURRENT_BRANCH);
-        String branchName = currentBranch + ".txt";
-        List<String> filenames = Utils.plainFilenamesIn(dir);
 
         System.out.println("=== Branches ===");
 
-        for (String filename : filenames) {
-            if (branchName.equals(filename)) {
+        for (Map.Entry<String, String> branch
+                : branches().all().entrySet()) {
+            if (branch.getKey().equals(currentBranch)) {
                 System.out.println("*" + currentBranch);
-            } else if (!filename.equals("currbranch.txt")
-                    && !filename.equals("head.txt")
-                    && !filename.equals("index.txt")) {
-                File file = new File(GIT + "/" + filename);
-                String contents = Utils.readContentsAsString(file);
-                if (!contents.equals("")) {
-                    System.out.println(filename.
-                            substring(0, filename.length() - 4));
-                }
+            } else if (!branch.getValue().equals("")) {
+                System.out.println(branch.getKey());
             }
         }
 
         System.out.println();
         System.out.println("=== Staged Files ===");
 
-        stagingArea = Utils.readObject(INDEX, Index.class);
+        stagingArea = Index.read(INDEX);
 
         TreeMap<String, String> filesToAddition = stagingArea.getAdd();
         for (Map.Entry<String, String> pair : filesToAddition.entrySet()) {
@@ -301,43 +693,229 @@ public class Command {
         System.out.println();
         System.out.println("=== Modifications Not Staged For Commit ===");
 
+        TreeMap<String, String> trackedFiles = trackedFiles(getCommit());
+        TreeSet<String> workingFiles = new TreeSet<>();
+        matchWorkingFiles(".", workingFiles);
+        HashSet<String> present = new HashSet<>(workingFiles);
+        TreeMap<String, String> modifications = new TreeMap<>();
+        ArrayList<String> untracked = new ArrayList<>();
+        for (String filename : workingFiles) {
+            String staged = filesToAddition.get(filename);
+            String tracked = trackedFiles.get(filename);
+            if (staged == null && (tracked == null
+                    || filesToRemove.containsKey(filename))) {
+                untracked.add(filename);
+            } else if (!stagingArea.blobOf(filename, new File(CWD, filename))
+                    .equals(staged != null ? staged : tracked)) {
+                modifications.put(filename, "modified");
+            }
+        }
+        for (String filename : filesToAddition.keySet()) {
+            if (!present.contains(filename)) {
+                modifications.put(filename, "deleted");
+            }
+        }
+        for (String filename : trackedFiles.keySet()) {
+            if (!present.contains(filename)
+                    && !filesToRemove.containsKey(filename)) {
+                modifications.put(filename, "deleted");
+            }
+        }
+        for (Map.Entry<String, String> pair : modifications.entrySet()) {
+            System.out.println(pair.getKey() + " (" + pair.getValue() + ")");
+        }
+
         System.out.println();
         System.out.println("=== Untracked Files ===");
+        for (String filename : untracked) {
+            System.out.println(filename);
+        }
         System.out.println();
+
+        stagingArea.retainStats(workingFiles);
+        if (stagingArea.statsChanged()) {
+            stagingArea.write(INDEX);
+        }
+    }
+
+    /** Prints the changes in the working files that are not staged, as
+     *  unified diffs against the files in the staging area, or in the
+     *  head commit if they are not staged.  Files whose stat data
+     *  shows them unchanged since they were last hashed are not
+     *  read, and files with a version larger than UnifiedDiff.MAX_SIZE
+     *  are only reported to differ. */
+    public static void diff() {
+        if (!GIT.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        stagingArea = Index.read(INDEX);
+        TreeMap<String, String> files = trackedFiles(getCommit());
+        files.keySet().removeAll(stagingArea.getRemove().keySet());
+        files.putAll(stagingArea.getAdd());
+        OutputStream out = new BufferedOutputStream(System.out);
+        try {
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                File working = new File(CWD, file.getKey());
+                if (!working.isFile()) {
+                    writeDiff(file.getKey(), file.getValue(), null, null,
+                            out);
+                } else if (!stagingArea.blobOf(file.getKey(), working)
+                        .equals(file.getValue())) {
+                    writeDiff(file.getKey(), file.getValue(), null, working,
+                            out);
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (stagingArea.statsChanged()) {
+            stagingArea.write(INDEX);
+        }
+    }
+
+    /** Prints the changes staged for the next commit, as unified diffs
+     *  against the files in the head commit, reporting only that files
+     *  larger than UnifiedDiff.MAX_SIZE differ. */
+    public static void diffStaged() {
+        if (!GIT.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        stagingArea = Index.read(INDEX);
+        Commit head = getCommit();
+        TreeMap<String, String> oldFiles = new TreeMap<>();
+        TreeMap<String, String> newFiles = new TreeMap<>();
+        for (Map.Entry<String, String> file
+                : stagingArea.getAdd().entrySet()) {
+            String blob = trackedBlob(head, file.getKey());
+            if (!blob.equals(file.getValue())) {
+                if (!blob.equals("")) {
+                    oldFiles.put(file.getKey(), blob);
+                }
+                newFiles.put(file.getKey(), file.getValue());
+            }
+        }
+        oldFiles.putAll(stagingArea.getRemove());
+        printDiff(oldFiles, newFiles);
+    }
+
+    /** Prints the changes from the commit FROM to the commit TO, each
+     *  given by a prefix of its id, as unified diffs.  Only the
+     *  subtrees and blobs that differ between the two are read, and
+     *  files larger than UnifiedDiff.MAX_SIZE are only reported to
+     *  differ. */
+    public static void diff(String from, String to) {
+        from = resolveCommit(from);
+        if (from == null) {
+            return;
+        }
+        to = resolveCommit(to);
+        if (to == null) {
+            return;
+        }
+        TreeMap<String, String> oldFiles = new TreeMap<>();
+        TreeMap<String, String> newFiles = new TreeMap<>();
+        Tree.diff(treeOf(readCommit(from)), treeOf(readCommit(to)),
+                TREE_STORE, oldFiles, newFiles);
+        printDiff(oldFiles, newFiles);
+    }
+
+    /** Prints unified diffs from the files OLDFILES to the files
+     *  NEWFILES, both mapping paths to blobs, at every path in either
+     *  where they differ. */
+    private static void printDiff(TreeMap<String, String> oldFiles,
+                                  TreeMap<String, String> newFiles) {
+        TreeSet<String> paths = new TreeSet<>(oldFiles.keySet());
+        paths.addAll(newFiles.keySet());
+        OutputStream out = new BufferedOutputStream(System.out);
+        try {
+            for (String path : paths) {
+                String oldBlob = oldFiles.get(path);
+                String newBlob = newFiles.get(path);
+                if (oldBlob == null || !oldBlob.equals(newBlob)) {
+                    writeDiff(path, oldBlob, newBlob, null, out);
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes to OUT the unified diff of the file PATH from the blob
+     *  OLDBLOB to the blob NEWBLOB or, if that is null, to the working
+     *  file NEWFILE.  A null OLDBLOB, or null NEWBLOB and NEWFILE, is a
+     *  missing version.  If either version is larger than
+     *  UnifiedDiff.MAX_SIZE, only reports that they differ, having read
+     *  no more than that much of each. */
+    private static void writeDiff(String path, String oldBlob,
+                                  String newBlob, File newFile,
+                                  OutputStream out) throws IOException {
+        Lines oldLines = oldBlob == null ? null : blobLines(oldBlob);
+        Lines newLines = null;
+        boolean newMissing = newBlob == null && newFile == null;
+        if (oldBlob == null || oldLines != null) {
+            newLines = newBlob != null ? blobLines(newBlob)
+                : newFile != null ? workingLines(newFile) : null;
+        }
+        if ((oldBlob != null && oldLines == null)
+                || (!newMissing && newLines == null)) {
+            UnifiedDiff.writeTooLarge(path, oldBlob == null, newMissing,
+                    out);
+        } else {
+            UnifiedDiff.write(path, oldLines, newLines, out);
+        }
+    }
+
+    /** Returns the lines of the blob BLOB, or null if it is larger than
+     *  UnifiedDiff.MAX_SIZE, in which case no more than that is read. */
+    private static Lines blobLines(String blob) throws IOException {
+        try (InputStream in = Blob.decompress(BLOB_STORE.open(blob))) {
+            byte[] contents = in.readNBytes(UnifiedDiff.MAX_SIZE + 1);
+            if (contents.length > UnifiedDiff.MAX_SIZE) {
+                return null;
+            }
+            return new Lines(contents);
+        }
+    }
+
+    /** Returns the lines of the working file FILE, which is mapped into
+     *  memory rather than read if it holds MAP_THRESHOLD bytes or
+     *  more, or null if it is larger than UnifiedDiff.MAX_SIZE. */
+    private static Lines workingLines(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > UnifiedDiff.MAX_SIZE) {
+                return null;
+            } else if (size < MAP_THRESHOLD) {
+                return new Lines(Files.readAllBytes(file.toPath()));
+            }
+            return new Lines(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    size));
+        }
     }
 
     public static void checkoutFile(String filename) {
-        Commit currentCommit = getCommit();
         checkout(Utils.readContentsAsString(HEAD), filename);
     }
 
     public static void checkout(String commit, String filename) {
-        File commitFile = new File(CWD + "/" + ".gitlet/commits/" + commit);
-        Commit currentCommit = Utils.readObject(commitFile, Commit.class);
-        if (!currentCommit.getContents().containsKey(filename)) {
+        Commit currentCommit = readCommit(commit);
+        String blob = trackedBlob(currentCommit, filename);
+        if (blob.equals("")) {
             System.out.println("File does not exist in that commit.");
             return;
         } else {
-            File file = new File(CWD + "/" + filename);
-            if (file.exists()) {
-                Utils.restrictedDelete(file);
-            }
-            try {
-                file.createNewFile();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            String blob = currentCommit.getContents().get(filename);
-            Utils.writeContents(file, Utils.readContentsAsString
-                    (new File(CWD + "/.gitlet/blobs/" + blob + ".txt")));
+            writeBlob(blob, new File(CWD, filename));
         }
     }
 
     public static void checkoutCommit(String commit, String filename) {
-        commit = abbreviatedUID(commit);
-        File commitFile = new File(CWD + "/.gitlet/commits/" + commit);
-        if (!commitFile.exists()) {
-            System.out.println("No commit with that id exists.");
+        commit = resolveCommit(commit);
+        if (commit == null) {
             return;
         }
         checkout(commit, filename);
@@ -349,20 +927,20 @@ public class Command {
             System.out.println("No need to checkout the current branch.");
             return;
         }
-        File branchFile = new File(CWD + "/.gitlet/" + branchName + ".txt");
-        if (!branchFile.exists()) {
+        String commitName = branches().get(branchName);
+        if (commitName == null) {
             System.out.println("No such branch exists.");
             return;
         }
 
         Commit currentCommit = getCommit();
 
-        String commitName = Utils.readContentsAsString(branchFile);
-        File fCommit = new File(CWD + "/.gitlet/commits/" + commitName);
-        Commit finalCommit = Utils.readObject(fCommit, Commit.class);
+        Commit finalCommit = readCommit(commitName);
 
-        TreeMap<String, String> currentFiles = currentCommit.getContents();
-        TreeMap<String, String> finalFiles = finalCommit.getContents();
+        TreeMap<String, String> currentFiles = new TreeMap<>();
+        TreeMap<String, String> finalFiles = new TreeMap<>();
+        Tree.diff(treeOf(currentCommit), treeOf(finalCommit), TREE_STORE,
+                currentFiles, finalFiles);
 
 
         for (Map.Entry<String, String> toOverwrite : finalFiles.entrySet()) {
@@ -375,54 +953,140 @@ public class Command {
             }
         }
 
-        Utils.writeContents(CURRENT_BRANCH, branchName);
-        Utils.writeContents(HEAD, commitName);
+        stagingArea = Index.read(INDEX);
+        if (!updateWorkingTree(currentFiles, finalFiles,
+                treeOf(finalCommit))) {
+            return;
+        }
+        Transaction transaction = Transaction.begin();
+        transaction.setRef(CURRENT_BRANCH, branchName);
+        transaction.setRef(HEAD, commitName);
+        transaction.commit();
+        stagingArea.reset();
+        stagingArea.write(INDEX);
+    }
 
-        for (Map.Entry<String, String> toDelete : currentFiles.entrySet()) {
-            if (!finalFiles.containsKey(toDelete.getKey())) {
-                File delete = new File(CWD + "/" + toDelete.getKey());
-                Utils.restrictedDelete(delete);
+    /** Changes the working files from those tracked in CURRENTFILES to
+     *  those of the commit whose root tree is FINALTREE, where
+     *  FINALFILES holds its files that differ from CURRENTFILES, walking
+     *  the two sorted maps together once.  The maps need only hold the
+     *  files that differ between two commits, as found by Tree.diff.
+     *  Deletes the files only in CURRENTFILES and writes those only in
+     *  FINALFILES or with different blobs.  A file with the same blob in
+     *  both commits is rewritten only if it is missing or modified; if
+     *  the working files of stagingArea are settled, only those whose
+     *  stat cache entries do not vouch for them are looked up in
+     *  FINALTREE, and otherwise every file of FINALTREE is checked.  All
+     *  deletions are done before the writes, which run in parallel on a
+     *  TreeWriter and are cached with their stat data, after which the
+     *  working files are settled.  Traces the number of files written
+     *  and deleted.  Returns false, after printing an error and saving
+     *  stagingArea, if any write failed, in which case the caller must
+     *  not move HEAD or branches to FINALTREE's commit. */
+    static boolean updateWorkingTree(TreeMap<String, String> currentFiles,
+                                     TreeMap<String, String> finalFiles,
+                                     String finalTree) {
+        Iterator<Map.Entry<String, String>> current =
+                currentFiles.entrySet().iterator();
+        Iterator<Map.Entry<String, String>> target =
+                finalFiles.entrySet().iterator();
+        Map.Entry<String, String> from = current.hasNext()
+                ? current.next() : null;
+        Map.Entry<String, String> to = target.hasNext()
+                ? target.next() : null;
+        ArrayList<String> deletions = new ArrayList<>();
+        HashMap<File, String> writes = new HashMap<>();
+        while (from != null || to != null) {
+            int cmp = from == null ? 1 : to == null ? -1
+                    : from.getKey().compareTo(to.getKey());
+            if (cmp < 0) {
+                deletions.add(from.getKey());
+            } else if (cmp > 0 || !from.getValue().equals(to.getValue())) {
+                writes.put(new File(CWD, to.getKey()), to.getValue());
+            }
+            if (cmp <= 0) {
+                from = current.hasNext() ? current.next() : null;
+            }
+            if (cmp >= 0) {
+                to = target.hasNext() ? target.next() : null;
             }
         }
-
-        for (Map.Entry<String, String> toOverwrite : finalFiles.entrySet()) {
-            File newFile = new File(CWD + "/" + toOverwrite.getKey());
-            if (!newFile.exists()) {
-                try {
-                    newFile.createNewFile();
-                } catch (IOException e) {
-                    e.printStackTrace();
+        if (stagingArea.settled() == 0) {
+            TreeMap<String, String> tracked = new TreeMap<>();
+            Tree.flatten(finalTree, TREE_STORE, tracked);
+            for (Map.Entry<String, String> file : tracked.entrySet()) {
+                if (!finalFiles.containsKey(file.getKey())) {
+                    checkWorkingFile(file.getKey(), file.getValue(), writes);
+                }
+            }
+        } else {
+            for (String name : new ArrayList<>(stagingArea.cachedNames())) {
+                if (currentFiles.containsKey(name)
+                        || finalFiles.containsKey(name)) {
+                    continue;
+                }
+                File working = new File(CWD, name);
+                if (working.isFile() && stagingArea.settledBlob(name,
+                        FileStat.of(working)) != null) {
+                    continue;
+                }
+                String committed = Tree.blob(finalTree, name, TREE_STORE);
+                if (committed != null) {
+                    checkWorkingFile(name, committed, writes);
                 }
             }
-            File blob = new File(CWD + "/.gitlet/blobs/"
-                    + toOverwrite.getValue() + ".txt");
-            Utils.writeContents(newFile, Utils.readContents(blob));
         }
-        stagingArea = Utils.readObject(INDEX, Index.class);
-        stagingArea.reset();
-        Utils.writeObject(INDEX, stagingArea);
+        for (String path : deletions) {
+            deleteWorkingFile(path);
+            stagingArea.uncacheBlob(path);
+        }
+        HashMap<File, FileStat> written = new HashMap<>();
+        List<String> errors = TreeWriter.write(writes, BLOB_STORE, written);
+        Path root = CWD.toPath();
+        for (Map.Entry<File, FileStat> file : written.entrySet()) {
+            String name = root.relativize(file.getKey().toPath()).toString()
+                    .replace(File.separatorChar, '/');
+            stagingArea.cacheBlob(name, file.getValue(),
+                    writes.get(file.getKey()));
+        }
+        Utils.trace("%d files written, %d deleted.",
+                writes.size() - errors.size(), deletions.size());
+        if (!errors.isEmpty()) {
+            stagingArea.unsettle();
+            stagingArea.write(INDEX);
+            System.out.println("Could not write " + errors.size()
+                    + " files: " + errors.get(0));
+            return false;
+        }
+        stagingArea.settle(FileStat.now());
+        return true;
     }
 
-    public static void branch(String name) {
-        File newBranch = new File(CWD + "/.gitlet/" + name + ".txt");
+    /** Adds the working file NAME to WRITES, to be written with BLOB, if
+     *  it is missing or, according to the stat cache of stagingArea,
+     *  does not hold BLOB. */
+    private static void checkWorkingFile(String name, String blob,
+                                         HashMap<File, String> writes) {
+        File working = new File(CWD, name);
+        if (!working.isFile()
+                || !stagingArea.blobOf(name, working).equals(blob)) {
+            writes.put(working, blob);
+        }
+    }
 
-        if (newBranch.exists()) {
+    public static void branch(String name) {
+        if (branches().get(name) != null) {
             System.out.println("A branch with that name already exists.");
             return;
         }
-        try {
-            newBranch.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        Utils.writeContents(newBranch, Utils.readContentsAsString(HEAD));
+        Transaction transaction = Transaction.begin();
+        branches().set(transaction, name, Utils.readContentsAsString(HEAD));
+        transaction.commit();
 
     }
 
     public static void removeBranch(String name) {
-        File branch = new File(CWD + "/.gitlet/" + name + ".txt");
-        if (!branch.exists()) {
+        if (branches().get(name) == null) {
             System.out.println("A branch with that name does not exist.");
             return;
         }
@@ -431,21 +1095,22 @@ public class Command {
             System.out.println("Cannot remove the current branch.");
             return;
         }
-        branch.delete();
+        branches().delete(name);
     }
 
     public static void reset(String commit) {
-        File commitFile = new File(CWD + "/.gitlet/commits/" + commit);
-        if (!commitFile.exists()) {
-            System.out.println("No commit with that id exists.");
+        commit = resolveCommit(commit);
+        if (commit == null) {
             return;
         }
         Commit currentCommit = getCommit();
 
-        Commit finalCommit = Utils.readObject(commitFile, Commit.class);
+        Commit finalCommit = readCommit(commit);
 
-        TreeMap<String, String> currentFiles = currentCommit.getContents();
-        TreeMap<String, String> finalFiles = finalCommit.getContents();
+        TreeMap<String, String> currentFiles = new TreeMap<>();
+        TreeMap<String, String> finalFiles = new TreeMap<>();
+        Tree.diff(treeOf(currentCommit), treeOf(finalCommit), TREE_STORE,
+                currentFiles, finalFiles);
 
         for (Map.Entry<String, String> toOverwrite : finalFiles.entrySet()) {
             File fileInCWD = new File(CWD + "/" + toOverwrite.getKey());
@@ -457,35 +1122,20 @@ public class Command {
             }
         }
 
-        for (Map.Entry<String, String> toDelete : currentFiles.entrySet()) {
-            if (!finalFiles.containsKey(toDelete.getKey())) {
-                File delete = new File(CWD + "/" + toDelete.getKey());
-                Utils.restrictedDelete(delete);
-            }
-        }
-
-        for (Map.Entry<String, String> toOverwrite : finalFiles.entrySet()) {
-            File newFile = new File(CWD + "/" + toOverwrite.getKey());
-            if (!newFile.exists()) {
-                try {
-                    newFile.createNewFile();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            File blob = new File(CWD + "/.gitlet/blobs/"
-                    + toOverwrite.getValue() + ".txt");
-            Utils.writeContents(newFile, Utils.readContents(blob));
+        stagingArea = Index.read(INDEX);
+        if (!updateWorkingTree(currentFiles, finalFiles,
+                treeOf(finalCommit))) {
+            return;
         }
 
         String branch = Utils.readContentsAsString(CURRENT_BRANCH);
-        File branchFile = new File(CWD + "/.gitlet/" + branch + ".txt");
-        Utils.writeContents(branchFile, commit);
-        Utils.writeContents(HEAD, commit);
+        Transaction transaction = Transaction.begin();
+        branches().set(transaction, branch, commit);
+        transaction.setRef(HEAD, commit);
+        transaction.commit();
 
-        stagingArea = Utils.readObject(INDEX, Index.class);
         stagingArea.reset();
-        Utils.writeObject(INDEX, stagingArea);
+        stagingArea.write(INDEX);
 
     }
 
@@ -498,7 +1148,6 @@ public class Command {
         for (Map.Entry<String, String> files : filesSplitPoint.entrySet()) {
             String name = files.getKey();
             String blob = files.getValue();
-            File file = new File(CWD + "/" + name);
             if (filesHeadCommit.containsKey(name)
                     && filesOtherCommit.containsKey(name)) {
                 if (!filesOtherCommit.get(name).equals(blob)
@@ -514,11 +1163,9 @@ public class Command {
                         && !filesHeadCommit.get(name).equals(blob)) {
                     if (!filesOtherCommit.get(name).
                             equals(filesHeadCommit.get(name))) {
-                        conflict.add(true);
-                        overwriteConflict(name, filesHeadCommit,
-                                filesOtherCommit);
-                        String newBlob = Utils.sha1(Utils.
-                                readContentsAsString(file));
+                        String newBlob = mergeFile(name, blob,
+                                filesHeadCommit.get(name),
+                                filesOtherCommit.get(name), conflict);
                         trackedFiles.put(name, newBlob);
                     } else {
                         trackedFiles.put(name, filesHeadCommit.get(name));
@@ -528,19 +1175,19 @@ public class Command {
                     && filesHeadCommit.get(name).equals(blob)
                     && !filesOtherCommit.containsKey(name)) {
                 stagingArea.remove(name);
-                Utils.restrictedDelete(name);
+                deleteWorkingFile(name);
             } else if (filesOtherCommit.containsKey(name)
                     && !filesHeadCommit.containsKey(name)
                     && filesOtherCommit.get(name).equals(blob)) {
-                Utils.restrictedDelete(name);
+                deleteWorkingFile(name);
             } else if (filesHeadCommit.containsKey(name)
                     && !filesHeadCommit.get(name).equals(blob)
                     && !filesOtherCommit.containsKey(name)) {
                 conflict.add(true);
                 TreeMap<String, String> removed = new TreeMap<>();
                 removed.put(name, "");
-                overwriteConflict(name, filesHeadCommit, removed);
-                String newBlob = Utils.sha1(Utils.readContentsAsString(file));
+                String newBlob = overwriteConflict(name, filesHeadCommit,
+                        removed);
                 trackedFiles.put(name, newBlob);
             } else if (filesOtherCommit.containsKey(name)
                     && !filesOtherCommit.get(name).equals(blob)
@@ -548,8 +1195,8 @@ public class Command {
                 conflict.add(true);
                 TreeMap<String, String> removed = new TreeMap<>();
                 removed.put(name, "");
-                overwriteConflict(name, removed, filesOtherCommit);
-                String newBlob = Utils.sha1(Utils.readContentsAsString(file));
+                String newBlob = overwriteConflict(name, removed,
+                        filesOtherCommit);
                 trackedFiles.put(name, newBlob);
             }
         }
@@ -579,37 +1226,32 @@ public class Command {
         }
     }
 
-    public static void mergeHelper3(TreeMap<String, String> trackedFiles,
+    public static void mergeHelper3(Transaction transaction, String tree,
                                     String commitID, String branchName,
-                                    String currentBranch, Commit otherCommit) {
+                                    String currentBranch) {
         DateTimeFormatter dateTime = DateTimeFormatter.
                 ofPattern("yyyy-MM-dd HH:mm:ss");
         LocalDateTime now = LocalDateTime.now();
         String message = "Merged " + branchName
                 + " into " + currentBranch + ".";
-        Commit newCommit = new Commit(message, getCommit(),
-                dateTime.format(now), otherCommit);
-        newCommit.setContents(trackedFiles);
-        String commitName = Utils.sha1(Utils.serialize(newCommit));
-        File newCommitFile = new File(CWD + "/.gitlet/commits/" + commitName);
-        File branchPointer = new File(CWD
-                + "/.gitlet/" + currentBranch + ".txt");
-        try {
-            newCommitFile.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        Utils.writeObject(newCommitFile, newCommit);
-        Utils.writeObject(INDEX, stagingArea);
-        Utils.writeContents(HEAD, commitName);
-        Utils.writeContents(branchPointer, commitName);
+        Commit newCommit = new Commit(message,
+                Utils.readContentsAsString(HEAD), dateTime.format(now),
+                commitID);
+        newCommit.setTree(tree);
+        String commitName = newCommit.createId();
+        Commit.write(newCommit, COMMIT_STORE);
+        recordCommit(newCommit);
+        branches().set(transaction, currentBranch, commitName);
+        transaction.setRef(HEAD, commitName);
+        transaction.commit();
+        stagingArea.write(INDEX);
     }
 
     public static void merge(String branchName) {
         Commit headCommit = getCommit();
-        File branch = new File(CWD + "/.gitlet/" + branchName + ".txt");
+        String commitID = branches().get(branchName);
         String currentBranch = Utils.readContentsAsString(CURRENT_BRANCH);
-        if (!branch.exists()) {
+        if (commitID == null) {
             System.out.println("A branch with that name does not exist.");
             return;
         }
@@ -617,36 +1259,36 @@ public class Command {
             System.out.println("Cannot merge a branch with itself.");
             return;
         }
-        String commitID = Utils.readContentsAsString(branch);
-        File commitFile = new File(CWD + "/" + ".gitlet/commits/" + commitID);
-        Commit otherCommit = Utils.readObject(commitFile, Commit.class);
-        Commit splitPoint = findSplitPointAdvanced(headCommit, otherCommit);
-        String splitPointName = Utils.sha1(Utils.serialize(splitPoint));
-        String headCommitName = Utils.readContentsAsString(HEAD);
-        if (splitPointName.equals(commitID)) {
+        String headCommitName = headCommit.getId();
+        if (graph().isAncestor(commitID, headCommitName)) {
             System.out.println("Given branch is an "
                    + "ancestor of the current branch.");
             return;
         }
-        if (splitPointName.equals(headCommitName)) {
+        if (graph().isAncestor(headCommitName, commitID)) {
             checkoutBranch(branchName);
             System.out.println("Current branch fast-forwarded.");
             return;
         }
-        stagingArea = Utils.readObject(INDEX, Index.class);
+        Commit otherCommit = readCommit(commitID);
+        Commit splitPoint = findSplitPointAdvanced(headCommit, otherCommit);
+        stagingArea = Index.read(INDEX);
         if (!stagingArea.empty()) {
             System.out.println("You have uncommitted changes.");
             return;
         }
-        TreeMap<String, String> filesHeadCommit = headCommit.getContents();
-        TreeMap<String, String> filesOtherCommit = otherCommit.getContents();
-        TreeMap<String, String> filesSplitPoint = splitPoint.getContents();
-        List<String> filesInCWD = Utils.plainFilenamesIn(CWD);
-        for (String file : filesInCWD) {
-            File newFile = new File(CWD + "/" + file);
-            String blob = Utils.sha1(Utils.readContentsAsString(newFile));
-            if (!filesHeadCommit.containsKey(file)
-                    && !filesOtherCommit.get(file).equals(blob)) {
+        String headTree = treeOf(headCommit);
+        TreeMap<String, String> filesHeadCommit = new TreeMap<>();
+        TreeMap<String, String> filesOtherCommit = new TreeMap<>();
+        TreeMap<String, String> filesSplitPoint = new TreeMap<>();
+        TreeSet<String> changed = mergeFiles(treeOf(splitPoint), headTree,
+                treeOf(otherCommit), filesSplitPoint, filesHeadCommit,
+                filesOtherCommit);
+        for (String file : filesOtherCommit.keySet()) {
+            File newFile = new File(CWD, file);
+            if (!filesHeadCommit.containsKey(file) && newFile.isFile()
+                    && !filesOtherCommit.get(file).equals(
+                            stagingArea.blobOf(file, newFile))) {
                 System.out.println("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
                 return;
@@ -655,145 +1297,270 @@ public class Command {
         TreeMap<String, String> trackedFiles = new TreeMap<>();
         ArrayList<Boolean> conflict = new ArrayList<>();
         conflict.add(false);
+        stagingArea.unsettle();
+        stagingArea.write(INDEX);
+        Transaction transaction = Transaction.begin();
         mergeHelper1(filesHeadCommit, filesOtherCommit,
                 filesSplitPoint, conflict, trackedFiles, commitID);
         mergeHelper2(filesHeadCommit, filesOtherCommit,
                 filesSplitPoint, conflict, trackedFiles, commitID);
-        mergeHelper3(trackedFiles, commitID, branchName,
-                currentBranch, otherCommit);
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (String file : changed) {
+            changes.put(file, trackedFiles.get(file));
+        }
+        mergeHelper3(transaction, Tree.update(headTree, changes, TREE_STORE),
+                commitID, branchName, currentBranch);
         if (conflict.get(conflict.size() - 1)) {
             System.out.println("Encountered a merge conflict.");
         }
     }
 
-    public static Commit findSplitPoint(Commit headCommit, Commit otherCommit) {
-        ArrayList<Commit> headCommitTree = new ArrayList<>();
-        ArrayList<Commit> otherCommitTree = new ArrayList<>();
-        Commit currCommit = headCommit;
-        while (currCommit != null) {
-            headCommitTree.add(currCommit);
-            currCommit = currCommit.getParent();
+    /** Fills SPLITFILES, HEADFILES and OTHERFILES with the files of the
+     *  trees SPLIT, HEAD and OTHER at the paths where HEAD or OTHER
+     *  differs from SPLIT, and returns those paths.  Files at all other
+     *  paths are the same in the three trees, so merging leaves them
+     *  alone; the subtrees holding only such files are not read. */
+    static TreeSet<String> mergeFiles(String split, String head,
+                                      String other,
+                                      TreeMap<String, String> splitFiles,
+                                      TreeMap<String, String> headFiles,
+                                      TreeMap<String, String> otherFiles) {
+        TreeMap<String, String> splitToOther = new TreeMap<>();
+        Tree.diff(split, head, TREE_STORE, splitFiles, headFiles);
+        Tree.diff(split, other, TREE_STORE, splitToOther, otherFiles);
+        TreeSet<String> headChanged = new TreeSet<>(splitFiles.keySet());
+        headChanged.addAll(headFiles.keySet());
+        TreeSet<String> otherChanged = new TreeSet<>(splitToOther.keySet());
+        otherChanged.addAll(otherFiles.keySet());
+        splitFiles.putAll(splitToOther);
+        TreeSet<String> changed = new TreeSet<>(headChanged);
+        changed.addAll(otherChanged);
+        for (String file : changed) {
+            String blob = splitFiles.get(file);
+            if (blob != null && !headChanged.contains(file)) {
+                headFiles.put(file, blob);
+            }
+            if (blob != null && !otherChanged.contains(file)) {
+                otherFiles.put(file, blob);
+            }
         }
-        currCommit = otherCommit;
+        return changed;
+    }
+
+    public static Commit findSplitPoint(Commit headCommit, Commit otherCommit) {
+        CommitGraph graph = graph();
+        HashSet<String> otherCommitTree = new HashSet<>();
+        String currCommit = otherCommit.getId();
         while (currCommit != null) {
             otherCommitTree.add(currCommit);
-            currCommit = currCommit.getParent();
+            currCommit = graph.parent(currCommit);
         }
-
-        for (Commit commit1 : headCommitTree) {
-            for (Commit commit2 : otherCommitTree) {
-                String commit1Name = Utils.sha1(Utils.serialize(commit1));
-                String commit2Name = Utils.sha1(Utils.serialize(commit2));
-                if (commit1Name.equals(commit2Name)) {
-                    return commit1;
-                }
+        currCommit = headCommit.getId();
+        while (currCommit != null) {
+            if (otherCommitTree.contains(currCommit)) {
+                return readCommit(currCommit);
             }
+            currCommit = graph.parent(currCommit);
         }
         return getCommit();
     }
 
     public static Commit findSplitPointAdvanced(Commit headCommit,
                                                 Commit otherCommit) {
-        ArrayDeque<String> commits = new ArrayDeque<>();
-        HashSet<String> ancestors = new HashSet<>();
-
-        String otherCommitName = Utils.sha1(Utils.serialize(otherCommit));
-        commits.add(otherCommitName);
-        while (!commits.isEmpty()) {
-            String currCommit = commits.remove();
-            ancestors.add(currCommit);
-            File currCommitFile = new File(COMMITS + "/" + currCommit);
-            Commit commit = Utils.readObject(currCommitFile, Commit.class);
-            if (commit.getParent() != null) {
-                String parentName = Utils.sha1(
-                        Utils.serialize(commit.getParent()));
-                commits.add(parentName);
-            }
-            if (commit.getMergeParent() != null) {
-                String mergeParentName = Utils.sha1(
-                        Utils.serialize(commit.getMergeParent()));
-                commits.add(mergeParentName);
-            }
-        }
-
-        String headCommitName = Utils.sha1(Utils.serialize(headCommit));
-        commits.add(headCommitName);
-        while (!commits.isEmpty()) {
-            String currCommit = commits.remove();
-            File currCommitFile = new File(COMMITS + "/" + currCommit);
-            Commit commit = Utils.readObject(currCommitFile, Commit.class);
-            if (ancestors.contains(currCommit)) {
-                return commit;
-            }
-            if (commit.getParent() != null) {
-                String parentName = Utils.sha1(
-                        Utils.serialize(commit.getParent()));
-                commits.add(parentName);
-            }
-            if (commit.getMergeParent() != null) {
-                String mergeParentName = Utils.sha1(
-                        Utils.serialize(commit.getMergeParent()));
-                commits.add(mergeParentName);
+        String splitPoint = graph().splitPoint(headCommit.getId(),
+                otherCommit.getId());
+        if (splitPoint == null) {
+            return getCommit();
+        }
+        return readCommit(splitPoint);
+    }
+
+    /** Upgrades a repository made by an older Gitlet in place.  Moves
+     *  blobs and commits stored flat in their directories into fan-out
+     *  subdirectories, then rewrites every commit still stored with
+     *  embedded parents into the id-based format, keeping its id.
+     *  Parents missing from the store are written under their old ids
+     *  so that everything reachable from the branch files stays
+     *  reachable.  Rewrites the trees stored with Java serialization in
+     *  the binary format, also keeping their ids.  Also moves the
+     *  branch files into the namespace of branches and rebuilds the
+     *  indexes of the commits. */
+    public static void upgrade() {
+        if (!GIT.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        branches();
+        BLOB_STORE.fanOut(".txt");
+        COMMIT_STORE.fanOut("");
+        for (String filename : COMMIT_STORE.ids()) {
+            ArrayDeque<String> names = new ArrayDeque<>();
+            ArrayDeque<LegacyCommit> todo = new ArrayDeque<>();
+            Object stored = LegacyCommit.read(COMMIT_STORE.open(filename));
+            if (stored instanceof LegacyCommit) {
+                names.add(filename);
+                todo.add((LegacyCommit) stored);
+            }
+            while (!todo.isEmpty()) {
+                String commitName = names.remove();
+                LegacyCommit legacy = todo.remove();
+                Commit converted = legacy.toCommit();
+                converted.setId(commitName);
+                Commit.write(converted, COMMIT_STORE);
+                for (LegacyCommit parent : new LegacyCommit[] {
+                        legacy.getParent(), legacy.getMergeParent()}) {
+                    if (parent != null) {
+                        String parentName = parent.id();
+                        if (!COMMIT_STORE.contains(parentName)) {
+                            names.add(parentName);
+                            todo.add(parent);
+                        }
+                    }
+                }
             }
         }
-        return getCommit();
+        for (String tree : TREE_STORE.ids()) {
+            Tree.upgrade(tree, TREE_STORE);
+        }
+        rebuildIndexes();
+    }
+
+    /** Rebuilds the commit graph, the commit id table, the commit
+     *  journal and the message index from the commits in the
+     *  repository, for when they are lost or damaged. */
+    public static void rebuildIndex() {
+        if (!GIT.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        rebuildIndexes();
     }
 
-    public static String abbreviatedUID(String commit) {
-        File dir = new File(CWD + "/.gitlet/commits");
-        List<String> files = Utils.plainFilenamesIn(dir);
-        for (String filename : files) {
-            if (commit.length() < filename.length()) {
-                if (filename.startsWith(commit)) {
-                    commit = filename;
+    /** Consolidates the loose blobs, trees and commits into packs, and
+     *  the loose branches into the packed ones.  Each blob is tried as
+     *  a delta against the blob at the same path in the parent of a
+     *  commit that introduced it. */
+    public static void pack() {
+        if (!GIT.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        HashMap<String, String> candidates = new HashMap<>();
+        for (String commitName : COMMIT_STORE.ids()) {
+            Commit commit = readCommit(commitName);
+            if (commit.getParent() == null) {
+                continue;
+            }
+            TreeMap<String, String> parentFiles = new TreeMap<>();
+            TreeMap<String, String> files = new TreeMap<>();
+            Tree.diff(treeOf(readCommit(commit.getParent())), treeOf(commit),
+                    TREE_STORE, parentFiles, files);
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                String base = parentFiles.get(file.getKey());
+                if (base != null) {
+                    candidates.putIfAbsent(file.getValue(), base);
                 }
             }
         }
-        return commit;
+        BLOB_STORE.pack(candidates);
+        COMMIT_STORE.pack(new HashMap<>());
+        TREE_STORE.pack(new HashMap<>());
+        branches().pack();
+    }
+
+    /** Returns the full id of the commit whose id starts with COMMIT,
+     *  found in the commit id table.  Prints an error and returns null
+     *  if there is no such commit or several. */
+    public static String resolveCommit(String commit) {
+        List<String> matches = commitIds().matches(commit, 2);
+        if (matches.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        }
+        if (matches.size() > 1) {
+            System.out.println("Ambiguous commit id prefix.");
+            return null;
+        }
+        return matches.get(0);
     }
 
-    public static void overwriteConflict(String filename,
+    /** Streams the contents of BLOB, if it is not "", to OUT. */
+    private static void copyBlob(String blob, OutputStream out)
+            throws IOException {
+        if (!blob.equals("")) {
+            try (InputStream in = Blob.decompress(BLOB_STORE.open(blob))) {
+                in.transferTo(out);
+            }
+        }
+    }
+
+    /** Writes the conflict of the versions of FILENAME in CURRENTCOMMIT
+     *  and GIVENCOMMIT, either of which may be "" for a deleted file,
+     *  to the working file, stores it as a blob and returns its id. */
+    public static String overwriteConflict(String filename,
                                          TreeMap<String, String> currentCommit,
                                          TreeMap<String, String> givenCommit) {
         File newFile = new File(CWD + "/" + filename);
-        String currentContents;
-        String givenContents;
-        if (currentCommit.get(filename).equals("")) {
-            currentContents = "";
-        } else {
-            currentContents = Utils.readContentsAsString(new File(CWD
-                    + "/.gitlet/blobs/"
-                    + currentCommit.get(filename) + ".txt"));
+        newFile.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(newFile.toPath()))) {
+            out.write(LineMerge.OURS_MARKER);
+            copyBlob(currentCommit.get(filename), out);
+            out.write(LineMerge.SEPARATOR);
+            copyBlob(givenCommit.get(filename), out);
+            out.write(LineMerge.THEIRS_MARKER);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
         }
+        return storeWorkingFile(newFile);
+    }
 
-        if (givenCommit.get(filename).equals("")) {
-            givenContents = "";
-        } else {
-            givenContents = Utils.readContentsAsString(new File(CWD
-                    + "/.gitlet/blobs/" + givenCommit.get(filename) + ".txt"));
-        }
-
-        String line1 = "<<<<<<< HEAD\n";
-        String line2 = currentContents;
-        String line3 = "=======\n";
-        String line4 = givenContents;
-        String line5 = ">>>>>>>\n";
-        String newContents;
-        if (line2.equals("")) {
-            newContents = line1 + line3 + line4 + line5;
-        } else if (line4.equals("")) {
-            newContents = line1 + line2 + line3 + line5;
-        } else {
-            newContents = line1 + line2 + line3 + line4 + line5;
+    /** Merges the changes that the blobs HEAD and OTHER make to the blob
+     *  BASE into the working file FILENAME, line by line, and stores
+     *  the result as a blob.  Only the changes that overlap are marked
+     *  as conflicts, unless one of the blobs is binary, in which case
+     *  the whole file is.  Adds true to CONFLICT if there was a
+     *  conflict.  Returns the id of the stored blob. */
+    static String mergeFile(String filename, String base, String head,
+                            String other, ArrayList<Boolean> conflict) {
+        Lines baseLines = readLines(base);
+        Lines headLines = readLines(head);
+        Lines otherLines = readLines(other);
+        if (baseLines.isBinary() || headLines.isBinary()
+                || otherLines.isBinary()) {
+            TreeMap<String, String> heads = new TreeMap<>();
+            TreeMap<String, String> others = new TreeMap<>();
+            heads.put(filename, head);
+            others.put(filename, other);
+            conflict.add(true);
+            return overwriteConflict(filename, heads, others);
         }
-        Utils.writeContents(newFile, newContents);
-        String newBlob = Utils.sha1(Utils.readContentsAsString(newFile));
-        File newBlobFile = new File(CWD + "/.gitlet/blobs/" + newBlob + ".txt");
-        try {
-            newBlobFile.createNewFile();
+        File newFile = new File(CWD, filename);
+        newFile.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(newFile.toPath()))) {
+            if (LineMerge.merge(baseLines, headLines, otherLines, out)) {
+                conflict.add(true);
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new IllegalArgumentException(e.getMessage());
         }
+        return storeWorkingFile(newFile);
+    }
+
+    /** Returns the lines of the blob BLOB. */
+    private static Lines readLines(String blob) {
+        return new Lines(Blob.readContents(BLOB_STORE.open(blob)));
+    }
+
+    /** Stores the working file FILE as a blob and returns its id, which
+     *  is computed as the file is stored. */
+    private static String storeWorkingFile(File file) {
+        File pending = BLOB_STORE.newTempFile();
+        String blob = Blob.store(file, pending);
+        BLOB_STORE.keep(pending, blob);
+        pending.delete();
+        return blob;
     }
 
 }
@@ -1,5 +1,8 @@
 package gitlet;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -13,24 +16,43 @@ import java.util.TreeMap;
 
 public class Commit implements Serializable {
 
+    /** Serialization version; commits no longer embed their parents.
+     *  Only commits stored before FORMAT was introduced are serialized
+     *  with Java serialization. */
+    private static final long serialVersionUID = 1L;
+
+    /** Version of the binary format of commits.  A commit is stored as
+     *  this byte, then its message, timestamp, parent, merge parent and
+     *  tree, and then its contents, if any, or an empty map. */
+    static final int FORMAT = 1;
+
     /** Log message. */
     private String _message;
 
     /** Timestamp of the commit. */
     private String _timestamp;
 
-    /** Head commit parent. */
-    private Commit _parent;
+    /** Id of the head commit parent, or null for the initial commit. */
+    private String _parent;
 
-    /** Merge parent. */
-    private Commit _mergeParent;
+    /** Id of the merge parent, or null if this is not a merge commit. */
+    private String _mergeParent;
 
     /** The TreeMap containing the filenames and the
-     * corresponding blobs of the files tracked in the commit. */
+     * corresponding blobs of the files tracked in the commit.  Only
+     * commits made before trees were introduced have one. */
     private TreeMap<String, String> _contents;
 
-    public Commit(String message, Commit parent,
-                  String timestamp, Commit parent2) {
+    /** Id of the root tree of the files tracked in the commit, or null
+     *  if the commit holds them in _contents. */
+    private String _tree;
+
+    /** Id of this commit, the SHA-1 of its stored form.  Never stored
+     *  itself; set once when the commit is created or read. */
+    private transient String _id;
+
+    public Commit(String message, String parent,
+                  String timestamp, String parent2) {
         _message = message;
         _parent = parent;
         _timestamp = timestamp;
@@ -38,7 +60,7 @@ public class Commit implements Serializable {
         _mergeParent = parent2;
     }
 
-    public Commit getParent() {
+    public String getParent() {
         return _parent;
     }
 
@@ -50,10 +72,96 @@ public class Commit implements Serializable {
         return _timestamp;
     }
 
-    public Commit getMergeParent() {
+    public String getMergeParent() {
         return _mergeParent;
     }
 
+    public String getId() {
+        return _id;
+    }
+
+    /** Computes the id of this newly built commit, records it and
+     *  returns it.  Must be called after the contents are final. */
+    public String createId() {
+        _id = Utils.sha1(encode());
+        return _id;
+    }
+
+    /** Returns this commit in the binary format FORMAT. */
+    byte[] encode() {
+        return Codec.encode(out -> {
+            out.writeByte(FORMAT);
+            Codec.writeString(out, _message);
+            Codec.writeString(out, _timestamp);
+            Codec.writeId(out, _parent);
+            Codec.writeId(out, _mergeParent);
+            Codec.writeId(out, _tree);
+            Codec.writeIds(out, _contents == null ? new TreeMap<>()
+                           : _contents);
+        });
+    }
+
+    /** Returns the commit read from STORED, in the binary format or, if
+     *  it was stored before that existed, serialized.  STORED must
+     *  support marks and is closed. */
+    static Commit read(InputStream stored) {
+        if (Codec.isJavaSerialized(stored)) {
+            return Utils.readObject(stored, Commit.class);
+        }
+        try (DataInputStream in = Codec.input(readAll(stored))) {
+            Codec.checkVersion(in, FORMAT, "commit");
+            String message = Codec.readString(in);
+            String timestamp = Codec.readString(in);
+            String parent = Codec.readId(in);
+            Commit result = new Commit(message, parent, timestamp,
+                                       Codec.readId(in));
+            result._tree = Codec.readId(in);
+            result._contents = Codec.readIds(in);
+            if (result._tree != null) {
+                result._contents = null;
+            }
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the rest of STORED, which is closed. */
+    private static byte[] readAll(InputStream stored) throws IOException {
+        try (InputStream in = stored) {
+            return in.readAllBytes();
+        }
+    }
+
+    /** Returns the commit ID of STORE. */
+    static Commit read(String id, ObjectStore store) {
+        Commit result = read(store.open(id));
+        result.setId(id);
+        return result;
+    }
+
+    /** Stores COMMIT, whose id has been created, in STORE. */
+    static void write(Commit commit, ObjectStore store) {
+        store.write(commit.getId(), commit.encode());
+    }
+
+    /** Records ID as the id under which this commit was stored. */
+    void setId(String id) {
+        _id = id;
+    }
+
+    /** Returns the id of the root tree, or null if this commit was made
+     *  before trees and holds its files in getContents(). */
+    public String getTree() {
+        return _tree;
+    }
+
+    /** Makes the tree with id TREE hold the files of this commit. */
+    public void setTree(String tree) {
+        _tree = tree;
+        _contents = null;
+    }
+
     public TreeMap<String, String> getContents() {
         return _contents;
     }
@@ -73,7 +181,7 @@ public class Commit implements Serializable {
         _contents = files;
     }
 
-    public String getDate(String timestamp1)
+    public static String getDate(String timestamp1)
             throws ParseException {
 
         Calendar cal = Calendar.getInstance();
@@ -107,10 +215,17 @@ public class Commit implements Serializable {
     }
 
     public void printCommit(String name) throws ParseException {
+        printCommit(name, _timestamp, _message);
+    }
+
+    /** Prints the log entry of the commit NAME, made at TIMESTAMP with
+     *  MESSAGE. */
+    static void printCommit(String name, String timestamp, String message)
+            throws ParseException {
         System.out.println("===");
         System.out.println("commit " + name);
-        System.out.println("Date: " + getDate(_timestamp));
-        System.out.println(_message);
+        System.out.println("Date: " + getDate(timestamp));
+        System.out.println(message);
         System.out.println();
     }
 
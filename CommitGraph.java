@@ -0,0 +1,451 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/** The commit graph: a fixed-width, memory-mapped index of the parent
+ *  links of every commit, so that history walks need not deserialize
+ *  commits.  Commits have positions in the order they were added, so
+ *  that parents always precede their children.  The file holds a
+ *  header (MAGIC, VERSION and the number N of sorted commits), the
+ *  RECORD_SIZE records of the first N commits, a lookup section of
+ *  LOOKUP_SIZE entries holding the id and position of each of them,
+ *  sorted by id, and then the records of the commits added since, in
+ *  order.  A record holds the commit's id, the positions of its parent
+ *  and merge parent (or -1), its generation number (1 for the initial
+ *  commit, otherwise one more than that of its highest parent) and its
+ *  timestamp in seconds since the epoch.  Opening the graph reads only
+ *  the header and the ids of the unsorted commits; the others are
+ *  found by binary search of the lookup section.  Once MAX_TAIL
+ *  commits are unsorted, the file is rewritten with all of them
+ *  sorted.
+ *  @author Elizaveta Belkina
+ */
+class CommitGraph {
+
+    /** Magic number starting a commit-graph file ("CGPH"). */
+    static final int MAGIC = 0x43475048;
+
+    /** Current format version. */
+    static final int VERSION = 2;
+
+    /** Size of the file header in bytes. */
+    static final int HEADER_SIZE = 12;
+
+    /** Size of one commit record in bytes. */
+    static final int RECORD_SIZE = 40;
+
+    /** Size of one entry of the lookup section in bytes. */
+    static final int LOOKUP_SIZE = Utils.UID_BYTES + 4;
+
+    /** Largest number of commits added after the lookup section before
+     *  the file is rewritten. */
+    static final int MAX_TAIL = 1024;
+
+    /** Offsets of the fields within a record. */
+    private static final int PARENT = Utils.UID_BYTES, MERGE_PARENT = 24,
+        GENERATION = 28, TIME = 32;
+
+    /** Position denoting a missing commit or parent. */
+    static final int NONE = -1;
+
+    /** Format of commit timestamps. */
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /** A commit graph stored in FILE, which need not exist yet. */
+    CommitGraph(File file) {
+        _file = file;
+        load();
+    }
+
+    /** Returns an empty commit graph to be stored in FILE, replacing any
+     *  there, by write(), which must be called once every commit has
+     *  been added.  Until then, commits are added in memory only. */
+    static CommitGraph building(File file) {
+        CommitGraph result = new CommitGraph(null);
+        result._file = file;
+        result._building = true;
+        return result;
+    }
+
+    /** Returns true iff FILE holds a commit graph in the current
+     *  format. */
+    static boolean current(File file) {
+        try (FileChannel channel =
+             FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                continue;
+            }
+            return !header.hasRemaining() && header.getInt(0) == MAGIC
+                && header.getInt(4) == VERSION;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Maps the file, if there is one, and reads its header and the ids
+     *  of the commits after the lookup section.  Bytes after the last
+     *  whole record are ignored. */
+    private void load() {
+        _tail = new HashMap<>();
+        _appended = ByteBuffer.allocate(RECORD_SIZE * 16);
+        _mapped = null;
+        _sorted = 0;
+        _mappedSize = 0;
+        if (_file != null && _file.exists()) {
+            try (FileChannel channel =
+                 FileChannel.open(_file.toPath(), StandardOpenOption.READ)) {
+                _mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                                      0, channel.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (_mapped.capacity() < HEADER_SIZE
+                || _mapped.getInt(0) != MAGIC
+                || _mapped.getInt(4) != VERSION
+                || tailStart(_mapped.getInt(8)) > _mapped.capacity()) {
+                throw Utils.error("Corrupt commit graph.");
+            }
+            _sorted = _mapped.getInt(8);
+            _mappedSize = _sorted
+                + (_mapped.capacity() - tailStart(_sorted)) / RECORD_SIZE;
+            byte[] id = new byte[Utils.UID_BYTES];
+            for (int pos = _sorted; pos < _mappedSize; pos += 1) {
+                _mapped.get(offset(pos), id);
+                _tail.put(Utils.uidString(id, 0), pos);
+            }
+        }
+        _size = _mappedSize;
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return _size;
+    }
+
+    /** Returns true iff commit ID is in the graph. */
+    boolean contains(String id) {
+        return find(id) != NONE;
+    }
+
+    /** Returns the id of the parent of commit ID, or null if it has
+     *  none. */
+    String parent(String id) {
+        return idAt(intField(position(id), PARENT));
+    }
+
+    /** Returns the id of the merge parent of commit ID, or null if it
+     *  has none. */
+    String mergeParent(String id) {
+        return idAt(intField(position(id), MERGE_PARENT));
+    }
+
+    /** Returns the generation number of commit ID. */
+    int generation(String id) {
+        return intField(position(id), GENERATION);
+    }
+
+    /** Returns the timestamp of commit ID in seconds since the epoch. */
+    long timestamp(String id) {
+        int pos = position(id);
+        if (pos < _mappedSize) {
+            return _mapped.getLong(offset(pos) + TIME);
+        }
+        return _appended.getLong((pos - _mappedSize) * RECORD_SIZE + TIME);
+    }
+
+    /** Appends COMMIT, whose parents must already be in the graph, to
+     *  the graph and, unless it is being built, to its file, first
+     *  cutting off any record left incomplete by an interrupted append.
+     *  Rewrites the file once MAX_TAIL commits are unsorted.  Does
+     *  nothing if COMMIT is present. */
+    void add(Commit commit) {
+        if (contains(commit.getId())) {
+            return;
+        }
+        int parent = positionOrNone(commit.getParent());
+        int mergeParent = positionOrNone(commit.getMergeParent());
+        int generation = 1;
+        for (int pos : new int[] { parent, mergeParent }) {
+            if (pos != NONE) {
+                generation = Math.max(generation,
+                                      intField(pos, GENERATION) + 1);
+            }
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(Utils.uidBytes(commit.getId()));
+        record.putInt(parent).putInt(mergeParent).putInt(generation);
+        record.putLong(LocalDateTime.parse(commit.getTimestamp(),
+                                           TIMESTAMP_FORMAT)
+                       .atZone(ZoneId.systemDefault()).toEpochSecond());
+        record.flip();
+        if (!_building) {
+            append(record.duplicate());
+        }
+
+        if (_appended.remaining() < RECORD_SIZE) {
+            ByteBuffer bigger = ByteBuffer.allocate(2 * _appended.capacity());
+            _appended.flip();
+            bigger.put(_appended);
+            _appended = bigger;
+        }
+        _appended.put(record);
+        _tail.put(commit.getId(), _size);
+        _size += 1;
+        if (!_building && _size - _sorted >= MAX_TAIL) {
+            write();
+        }
+    }
+
+    /** Writes RECORD at the end of the file, creating it if needed,
+     *  after truncating the file to its last whole record. */
+    private void append(ByteBuffer record) {
+        try (FileChannel channel =
+             FileChannel.open(_file.toPath(), StandardOpenOption.CREATE,
+                              StandardOpenOption.READ,
+                              StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            long end;
+            if (channel.size() < HEADER_SIZE) {
+                header.putInt(MAGIC).putInt(VERSION).putInt(0).flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                end = HEADER_SIZE;
+            } else {
+                channel.read(header, 0);
+                long start = tailStart(header.getInt(8));
+                end = start
+                    + (channel.size() - start) / RECORD_SIZE * RECORD_SIZE;
+                channel.truncate(end);
+            }
+            while (record.hasRemaining()) {
+                end += channel.write(record, end);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Rewrites the file with every commit of the graph in the lookup
+     *  section, replacing it atomically, and maps the new file. */
+    void write() {
+        Integer[] byId = new Integer[_size];
+        byte[][] ids = new byte[_size][Utils.UID_BYTES];
+        for (int pos = 0; pos < _size; pos += 1) {
+            byId[pos] = pos;
+            if (pos < _mappedSize) {
+                _mapped.get(offset(pos), ids[pos]);
+            } else {
+                _appended.get((pos - _mappedSize) * RECORD_SIZE, ids[pos]);
+            }
+        }
+        Arrays.sort(byId, (a, b) -> Arrays.compareUnsigned(ids[a], ids[b]));
+
+        ByteBuffer contents =
+            ByteBuffer.allocate(tailStart(_size));
+        contents.putInt(MAGIC).putInt(VERSION).putInt(_size);
+        for (int pos = 0; pos < _size; pos += 1) {
+            if (pos < _mappedSize) {
+                contents.put(_mapped.slice(offset(pos), RECORD_SIZE));
+            } else {
+                contents.put(_appended.slice((pos - _mappedSize)
+                                             * RECORD_SIZE, RECORD_SIZE));
+            }
+        }
+        for (int pos : byId) {
+            contents.put(ids[pos]).putInt(pos);
+        }
+        File pending = new File(_file.getPath() + ".tmp");
+        Utils.writeContents(pending, contents.array());
+        if (!pending.renameTo(_file)) {
+            throw Utils.error("Could not write %s.", _file);
+        }
+        _building = false;
+        load();
+    }
+
+    /** Returns true iff commit ANCESTOR is reachable from commit
+     *  DESCENDANT (a commit is its own ancestor).  Generation numbers
+     *  stop the search at commits too old to lead to ANCESTOR. */
+    boolean isAncestor(String ancestor, String descendant) {
+        int target = position(ancestor);
+        int generation = intField(target, GENERATION);
+        BitSet visited = new BitSet(_size);
+        ArrayDeque<Integer> commits = new ArrayDeque<>();
+        commits.add(position(descendant));
+        while (!commits.isEmpty()) {
+            int pos = commits.remove();
+            if (pos == target) {
+                return true;
+            }
+            if (visited.get(pos) || intField(pos, GENERATION) <= generation) {
+                continue;
+            }
+            visited.set(pos);
+            addParents(pos, commits);
+        }
+        return false;
+    }
+
+    /** Returns the id of the split point of commits HEAD and OTHER: the
+     *  first common ancestor found by a breadth-first search from HEAD,
+     *  or null if they have none. */
+    String splitPoint(String head, String other) {
+        BitSet ancestors = new BitSet(_size);
+        ArrayDeque<Integer> commits = new ArrayDeque<>();
+        commits.add(position(other));
+        while (!commits.isEmpty()) {
+            int pos = commits.remove();
+            if (!ancestors.get(pos)) {
+                ancestors.set(pos);
+                addParents(pos, commits);
+            }
+        }
+
+        BitSet visited = new BitSet(_size);
+        commits.add(position(head));
+        while (!commits.isEmpty()) {
+            int pos = commits.remove();
+            if (ancestors.get(pos)) {
+                return idAt(pos);
+            }
+            if (!visited.get(pos)) {
+                visited.set(pos);
+                addParents(pos, commits);
+            }
+        }
+        return null;
+    }
+
+    /** Adds the positions of the parents of the commit at POS to
+     *  COMMITS. */
+    private void addParents(int pos, ArrayDeque<Integer> commits) {
+        int parent = intField(pos, PARENT);
+        int mergeParent = intField(pos, MERGE_PARENT);
+        if (parent != NONE) {
+            commits.add(parent);
+        }
+        if (mergeParent != NONE) {
+            commits.add(mergeParent);
+        }
+    }
+
+    /** Returns the position of commit ID, which must be in the graph. */
+    private int position(String id) {
+        int pos = find(id);
+        if (pos == NONE) {
+            throw Utils.error("Commit %s is missing from the commit graph.",
+                              id);
+        }
+        return pos;
+    }
+
+    /** Returns the position of commit ID, or NONE if it is not in the
+     *  graph, searching the unsorted commits and then the lookup
+     *  section. */
+    private int find(String id) {
+        Integer pos = _tail.get(id);
+        if (pos != null) {
+            return pos;
+        }
+        byte[] key = Utils.uidBytes(id);
+        byte[] probe = new byte[Utils.UID_BYTES];
+        int low = 0, high = _sorted;
+        int lookup = HEADER_SIZE + _sorted * RECORD_SIZE;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            _mapped.get(lookup + mid * LOOKUP_SIZE, probe);
+            int cmp = Arrays.compareUnsigned(probe, key);
+            if (cmp == 0) {
+                return _mapped.getInt(lookup + mid * LOOKUP_SIZE
+                                      + Utils.UID_BYTES);
+            } else if (cmp < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the position of commit ID, or NONE if ID is null. */
+    private int positionOrNone(String id) {
+        return id == null ? NONE : position(id);
+    }
+
+    /** Returns the id of the commit at POS, or null if POS is NONE. */
+    private String idAt(int pos) {
+        if (pos == NONE) {
+            return null;
+        }
+        byte[] id = new byte[Utils.UID_BYTES];
+        if (pos < _mappedSize) {
+            _mapped.get(offset(pos), id);
+        } else {
+            _appended.get((pos - _mappedSize) * RECORD_SIZE, id);
+        }
+        return Utils.uidString(id, 0);
+    }
+
+    /** Returns the int at byte FIELD of the record at POS. */
+    private int intField(int pos, int field) {
+        if (pos < _mappedSize) {
+            return _mapped.getInt(offset(pos) + field);
+        }
+        return _appended.getInt((pos - _mappedSize) * RECORD_SIZE + field);
+    }
+
+    /** Returns the byte offset in the file of the record at POS, which
+     *  must be below _mappedSize. */
+    private int offset(int pos) {
+        if (pos < _sorted) {
+            return HEADER_SIZE + pos * RECORD_SIZE;
+        }
+        return tailStart(_sorted) + (pos - _sorted) * RECORD_SIZE;
+    }
+
+    /** Returns the byte offset of the first record after the lookup
+     *  section in a file with SORTED sorted commits. */
+    private static int tailStart(int sorted) {
+        return HEADER_SIZE + sorted * (RECORD_SIZE + LOOKUP_SIZE);
+    }
+
+    /** The file holding the graph. */
+    private File _file;
+
+    /** True while the graph is built in memory, before write(). */
+    private boolean _building;
+
+    /** The file as it was when last mapped, or null if there was none. */
+    private MappedByteBuffer _mapped;
+
+    /** Number of commits in the lookup section of _mapped. */
+    private int _sorted;
+
+    /** Number of records in _mapped. */
+    private int _mappedSize;
+
+    /** Records appended since the file was opened. */
+    private ByteBuffer _appended;
+
+    /** Total number of records. */
+    private int _size;
+
+    /** Maps the ids of the commits after the lookup section, in the
+     *  file or appended since it was mapped, to their positions. */
+    private HashMap<String, Integer> _tail;
+
+}
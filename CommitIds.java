@@ -0,0 +1,228 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/** A persistent table of every commit id, for resolving abbreviated
+ *  ids by binary search.  The file holds MAGIC, VERSION and the number
+ *  N of sorted ids, followed by the bytes of those N ids in increasing
+ *  order and then by those of the ids added since, in the order they
+ *  were added.  Adding an id appends it, so that a commit costs O(1)
+ *  I/O; lookups search the sorted ids and scan the others, which are
+ *  merged into the sorted ones by rewriting the file once there are
+ *  MAX_TAIL of them.
+ *  @author Elizaveta Belkina
+ */
+class CommitIds {
+
+    /** Magic number starting the file ("GCID"). */
+    static final int MAGIC = 0x47434944;
+
+    /** Current format version. */
+    static final int VERSION = 2;
+
+    /** Size of the file header in bytes. */
+    static final int HEADER_SIZE = 12;
+
+    /** Largest number of unsorted ids before the file is rewritten. */
+    static final int MAX_TAIL = 1024;
+
+    /** A table stored in FILE, which need not exist yet. */
+    CommitIds(File file) {
+        _file = file;
+        _tail = new ArrayList<>();
+        if (file.exists()) {
+            try (FileChannel channel =
+                 FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                _ids = channel.map(FileChannel.MapMode.READ_ONLY,
+                                   0, channel.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (_ids.capacity() < HEADER_SIZE || _ids.getInt(0) != MAGIC
+                || _ids.getInt(4) != VERSION
+                || offset(_ids.getInt(8)) > _ids.capacity()) {
+                throw Utils.error("Corrupt commit id table.");
+            }
+            _sorted = _ids.getInt(8);
+            int tail = (_ids.capacity() - offset(_sorted)) / Utils.UID_BYTES;
+            for (int k = _sorted; k < _sorted + tail; k += 1) {
+                _tail.add(get(k));
+            }
+        }
+    }
+
+    /** Returns true iff FILE holds a table in the current format. */
+    static boolean current(File file) {
+        try (FileChannel channel =
+             FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                continue;
+            }
+            return !header.hasRemaining() && header.getInt(0) == MAGIC
+                && header.getInt(4) == VERSION;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the number of ids in the table. */
+    int size() {
+        return _sorted + _tail.size();
+    }
+
+    /** Returns up to LIMIT ids starting with the hexadecimal PREFIX, in
+     *  increasing order, found by binary search of the sorted ids and a
+     *  scan of the others. */
+    List<String> matches(String prefix, int limit) {
+        TreeSet<String> found = new TreeSet<>();
+        prefix = prefix.toLowerCase();
+        if (prefix.length() > Utils.UID_LENGTH
+            || !prefix.matches("[0-9a-f]*")) {
+            return new ArrayList<>();
+        }
+        for (int k = lowerBound(prefix); k < _sorted && found.size() < limit
+                 && compare(k, prefix) == 0; k += 1) {
+            found.add(get(k));
+        }
+        for (String id : _tail) {
+            if (id.startsWith(prefix)) {
+                found.add(id);
+            }
+        }
+        ArrayList<String> result = new ArrayList<>(found);
+        return result.subList(0, Math.min(limit, result.size()));
+    }
+
+    /** Adds ID to the table, unless it is already present, by appending
+     *  it to the file after cutting off any id left incomplete by an
+     *  interrupted append.  Rewrites the file with every id sorted once
+     *  MAX_TAIL ids are unsorted. */
+    void add(String id) {
+        int pos = lowerBound(id);
+        if ((pos < _sorted && get(pos).equals(id)) || _tail.contains(id)) {
+            return;
+        }
+        _tail.add(id);
+        if (_tail.size() >= MAX_TAIL) {
+            ArrayList<String> all = new ArrayList<>(_tail);
+            for (int k = 0; k < _sorted; k += 1) {
+                all.add(get(k));
+            }
+            write(_file, all);
+            CommitIds table = new CommitIds(_file);
+            _ids = table._ids;
+            _sorted = table._sorted;
+            _tail = table._tail;
+            return;
+        }
+        try (FileChannel channel =
+             FileChannel.open(_file.toPath(), StandardOpenOption.CREATE,
+                              StandardOpenOption.READ,
+                              StandardOpenOption.WRITE)) {
+            long end;
+            if (channel.size() < HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(0).flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                end = HEADER_SIZE;
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(header, 0);
+                long start = offset(header.getInt(8));
+                end = start + (channel.size() - start) / Utils.UID_BYTES
+                    * Utils.UID_BYTES;
+                channel.truncate(end);
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(Utils.uidBytes(id));
+            while (bytes.hasRemaining()) {
+                end += channel.write(bytes, end);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes a table holding exactly IDS, all sorted, to FILE,
+     *  replacing it atomically. */
+    static void write(File file, Collection<String> ids) {
+        TreeSet<String> sorted = new TreeSet<>(ids);
+        ByteBuffer contents = ByteBuffer.allocate(
+            HEADER_SIZE + sorted.size() * Utils.UID_BYTES);
+        contents.putInt(MAGIC).putInt(VERSION).putInt(sorted.size());
+        for (String id : sorted) {
+            contents.put(Utils.uidBytes(id));
+        }
+        File pending = new File(file.getPath() + ".tmp");
+        Utils.writeContents(pending, contents.array());
+        if (!pending.renameTo(file)) {
+            throw Utils.error("Could not write %s.", file);
+        }
+    }
+
+    /** Returns the id at position K of the file. */
+    private String get(int k) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        _ids.get(offset(k), id);
+        return Utils.uidString(id, 0);
+    }
+
+    /** Returns the position of the first sorted id not less than PREFIX
+     *  in its first PREFIX.length() digits. */
+    private int lowerBound(String prefix) {
+        int lo = 0, hi = _sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compares the first PREFIX.length() hexadecimal digits of the id
+     *  at position K with PREFIX. */
+    private int compare(int k, String prefix) {
+        int offset = offset(k);
+        for (int i = 0; i < prefix.length(); i += 1) {
+            int b = _ids.get(offset + i / 2) & 0xff;
+            int digit = i % 2 == 0 ? b >> 4 : b & 0xf;
+            int cmp = Integer.compare(digit,
+                                      Character.digit(prefix.charAt(i), 16));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the offset in the file of the id at position K. */
+    private static int offset(int k) {
+        return HEADER_SIZE + k * Utils.UID_BYTES;
+    }
+
+    /** The file holding the table. */
+    private final File _file;
+
+    /** The mapped file, or null if it did not exist when opened. */
+    private MappedByteBuffer _ids;
+
+    /** Number of sorted ids. */
+    private int _sorted;
+
+    /** The unsorted ids, in the file or added since it was opened. */
+    private ArrayList<String> _tail;
+
+}
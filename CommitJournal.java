@@ -0,0 +1,279 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/** A journal of commits, holding the id, timestamp and message of each
+ *  commit in ORDER, by timestamp and then by id, so that they can be
+ *  listed without reading the commits themselves, and in the same order
+ *  whether the journal was appended to or rebuilt.  The file holds
+ *  MAGIC and VERSION followed by one record per commit: the id's bytes,
+ *  then the timestamp and the message, each as a length and UTF-8
+ *  bytes, and then the length of the record so far, so that the last
+ *  record can be read from the end.  A commit is appended if it sorts
+ *  after the last record, as it does unless it was made in the same
+ *  second as a commit with a greater id or the clock went back, and
+ *  the journal is rewritten otherwise.  A record cut short by a crash
+ *  ends the journal until it is rewritten or rebuilt.
+ *  @author Elizaveta Belkina
+ */
+class CommitJournal {
+
+    /** Magic number starting the file ("GJNL"). */
+    static final int MAGIC = 0x474a4e4c;
+
+    /** Current format version. */
+    static final int VERSION = 2;
+
+    /** The order of the records. */
+    static final Comparator<Entry> ORDER =
+        Comparator.comparing(Entry::getTimestamp)
+        .thenComparing(Entry::getId);
+
+    /** Size of the file header. */
+    private static final int HEADER_SIZE = 8;
+
+    /** A journal stored in FILE, which need not exist yet. */
+    CommitJournal(File file) {
+        _file = file;
+    }
+
+    /** The journal record of one commit. */
+    static class Entry {
+
+        /** The record of commit ID, made at TIMESTAMP with MESSAGE. */
+        Entry(String id, String timestamp, String message) {
+            _id = id;
+            _timestamp = timestamp;
+            _message = message;
+        }
+
+        /** The record of COMMIT. */
+        Entry(Commit commit) {
+            this(commit.getId(), commit.getTimestamp(), commit.getMessage());
+        }
+
+        String getId() {
+            return _id;
+        }
+
+        String getTimestamp() {
+            return _timestamp;
+        }
+
+        String getMessage() {
+            return _message;
+        }
+
+        /** Id of the commit. */
+        private final String _id;
+
+        /** Timestamp of the commit. */
+        private final String _timestamp;
+
+        /** Log message of the commit. */
+        private final String _message;
+    }
+
+    /** Reads the entries of a journal in order. */
+    class Reader implements Closeable {
+
+        /** A reader positioned at the first entry. */
+        private Reader() throws IOException {
+            _in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(_file.toPath()), Utils.BUFFER_SIZE));
+            if (_in.readInt() != MAGIC || _in.readInt() != VERSION) {
+                _in.close();
+                throw Utils.error("Corrupt commit journal.");
+            }
+        }
+
+        /** Returns the next entry, or null if there are no more. */
+        Entry next() {
+            try {
+                byte[] id = new byte[Utils.UID_BYTES];
+                _in.readFully(id);
+                String timestamp = readString();
+                String message = readString();
+                _in.readInt();
+                return new Entry(Utils.uidString(id, 0), timestamp, message);
+            } catch (EOFException excp) {
+                return null;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                _in.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Returns the next length-prefixed string. */
+        private String readString() throws IOException {
+            byte[] bytes = new byte[_in.readInt()];
+            _in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** The journal's contents. */
+        private final DataInputStream _in;
+    }
+
+    /** Returns a reader of the entries of this journal, which must
+     *  exist, from the oldest. */
+    Reader reader() {
+        try {
+            return new Reader();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff FILE holds a journal in the current format. */
+    static boolean current(File file) {
+        try (DataInputStream in = new DataInputStream(
+                 Files.newInputStream(file.toPath()))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns all the entries of this journal, which must exist, in
+     *  order. */
+    List<Entry> entries() {
+        ArrayList<Entry> result = new ArrayList<>();
+        try (Reader entries = reader()) {
+            for (Entry entry = entries.next(); entry != null;
+                 entry = entries.next()) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /** Adds the entry for COMMIT, creating the journal if needed, and
+     *  returns true iff it is the last entry.  The record is appended in
+     *  a single write if it sorts after the last one; otherwise, or if
+     *  the last record is cut short, the journal is rewritten with the
+     *  entry in its place. */
+    boolean append(Commit commit) {
+        Entry entry = new Entry(commit);
+        try {
+            if (!_file.exists()) {
+                write(_file, List.of(entry));
+                return true;
+            }
+            Entry last = last();
+            if (last != null && ORDER.compare(last, entry) <= 0) {
+                try (OutputStream out = new FileOutputStream(_file, true)) {
+                    out.write(encode(false, List.of(entry)));
+                }
+                return true;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        List<Entry> entries = entries();
+        entries.add(entry);
+        entries.sort(ORDER);
+        write(_file, entries);
+        return entries.get(entries.size() - 1) == entry;
+    }
+
+    /** Writes a journal holding exactly ENTRIES, in order, to FILE,
+     *  replacing it atomically. */
+    static void write(File file, List<Entry> entries) {
+        File pending = new File(file.getPath() + ".tmp");
+        Utils.writeContents(pending, encode(true, entries));
+        if (!pending.renameTo(file)) {
+            throw Utils.error("Could not write %s.", file);
+        }
+    }
+
+    /** Returns the id and timestamp of the last entry, or null if there
+     *  is none or its record is cut short. */
+    private Entry last() throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(_file, "r")) {
+            long length = in.length();
+            if (length < HEADER_SIZE + 4) {
+                return null;
+            }
+            in.seek(length - 4);
+            int size = in.readInt();
+            if (size < Utils.UID_BYTES + 8
+                || size > length - HEADER_SIZE - 4) {
+                return null;
+            }
+            in.seek(length - 4 - size);
+            byte[] id = new byte[Utils.UID_BYTES];
+            in.readFully(id);
+            int timestampSize = in.readInt();
+            if (timestampSize < 0
+                || timestampSize > size - Utils.UID_BYTES - 8) {
+                return null;
+            }
+            byte[] timestamp = new byte[timestampSize];
+            in.readFully(timestamp);
+            if (Utils.UID_BYTES + 8 + timestampSize + in.readInt() != size) {
+                return null;
+            }
+            return new Entry(Utils.uidString(id, 0),
+                             new String(timestamp, StandardCharsets.UTF_8),
+                             null);
+        }
+    }
+
+    /** Returns the records of ENTRIES, preceded by the file header if
+     *  HEADER. */
+    private static byte[] encode(boolean header, List<Entry> entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (header) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            for (Entry entry : entries) {
+                int start = out.size();
+                out.write(Utils.uidBytes(entry.getId()));
+                writeString(out, entry.getTimestamp());
+                writeString(out, entry.getMessage());
+                out.writeInt(out.size() - start);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Writes S to OUT as its length and UTF-8 bytes. */
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** The file holding the journal. */
+    private final File _file;
+
+}
@@ -0,0 +1,179 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/** A long-lived server that runs Gitlet commands on the repository in
+ *  its working directory, for clients connecting to the Unix domain
+ *  socket SOCKET.  Keeping one JVM and the repository open saves each
+ *  command the start-up of a JVM and lets the caches stay warm.
+ *
+ *  Commands are run one at a time.  A request is the number of
+ *  arguments followed by the arguments, each an int length and UTF-8
+ *  bytes.  The reply is the standard output of the command, then its
+ *  standard error, each an int length and the bytes, then the exit
+ *  code as an int.  Before each command the caches are dropped if
+ *  another process has changed the repository since the last one.
+ *  @author Elizaveta Belkina
+ */
+class Daemon {
+
+    /** The socket, relative to the working directory. */
+    static final Path SOCKET = Path.of(".gitlet", "daemon.sock");
+
+    /** Argument asking a running daemon to stop. */
+    static final String STOP = "stop";
+
+    /** Serves requests until asked to stop.  Prints an error and
+     *  returns if the current directory has no repository or a daemon
+     *  already serves it. */
+    static void serve() {
+        if (!Command.GIT.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        try (SocketChannel running = Client.connect()) {
+            if (running != null) {
+                System.out.println("A daemon is already running.");
+                return;
+            }
+        } catch (IOException excp) {
+            return;
+        }
+        try (ServerSocketChannel server =
+             ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            Files.deleteIfExists(SOCKET);
+            server.bind(UnixDomainSocketAddress.of(SOCKET));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(SOCKET);
+                } catch (IOException excp) {
+                    return;
+                }
+            }));
+            String stamp = stamp();
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    String[] args = readRequest(client);
+                    if (args.length == 2 && args[0].equals("daemon")
+                        && args[1].equals(STOP)) {
+                        writeReply(client, new byte[0], new byte[0], 0);
+                        break;
+                    }
+                    if (!stamp.equals(stamp())) {
+                        Command.invalidateCaches();
+                    }
+                    run(client, args);
+                    stamp = stamp();
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+            Files.deleteIfExists(SOCKET);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Runs the command ARGS with its output captured, and sends the
+     *  reply to CLIENT. */
+    private static void run(SocketChannel client, String[] args)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PrintStream stdout = System.out, stderr = System.err;
+        int exitCode = 0;
+        try (PrintStream capturedOut = new PrintStream(out, true);
+             PrintStream capturedErr = new PrintStream(err, true)) {
+            System.setOut(capturedOut);
+            System.setErr(capturedErr);
+            try {
+                Main.run(args);
+            } catch (Exception excp) {
+                excp.printStackTrace();
+                exitCode = 1;
+                Transaction.abort();
+                Command.invalidateCaches();
+            }
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        writeReply(client, out.toByteArray(), err.toByteArray(), exitCode);
+    }
+
+    /** Returns a summary of the size, modification time and identity of
+     *  each file in the .gitlet directory and of each pack, which
+     *  changes whenever another process commits, moves a ref, stages a
+     *  file or packs objects. */
+    private static String stamp() {
+        StringBuilder result = new StringBuilder();
+        stamp(Command.GIT, result);
+        for (ObjectStore store : new ObjectStore[] {
+                Command.BLOB_STORE, Command.TREE_STORE,
+                Command.COMMIT_STORE }) {
+            stamp(new File(store.dir(), ObjectStore.PACK_DIR), result);
+        }
+        return result.toString();
+    }
+
+    /** Appends the stat data of the plain files in DIR to RESULT. */
+    private static void stamp(File dir, StringBuilder result) {
+        File[] files = dir.listFiles(File::isFile);
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(
+                    file.toPath(), BasicFileAttributes.class);
+                result.append(file.getName()).append(' ')
+                    .append(attrs.size()).append(' ')
+                    .append(attrs.lastModifiedTime()).append(' ')
+                    .append(attrs.fileKey()).append('\n');
+            } catch (IOException excp) {
+                result.append(file.getName()).append(" gone\n");
+            }
+        }
+    }
+
+    /** Returns the arguments of the request read from CHANNEL. */
+    static String[] readRequest(SocketChannel channel) throws IOException {
+        DataInputStream in =
+            new DataInputStream(Channels.newInputStream(channel));
+        String[] result = new String[in.readInt()];
+        for (int i = 0; i < result.length; i += 1) {
+            byte[] arg = new byte[in.readInt()];
+            in.readFully(arg);
+            result[i] = new String(arg, StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    /** Writes the reply OUT, ERR and EXITCODE to CHANNEL. */
+    static void writeReply(SocketChannel channel, byte[] out, byte[] err,
+                           int exitCode) throws IOException {
+        DataOutputStream reply =
+            new DataOutputStream(Channels.newOutputStream(channel));
+        reply.writeInt(out.length);
+        reply.write(out);
+        reply.writeInt(err.length);
+        reply.write(err);
+        reply.writeInt(exitCode);
+        reply.flush();
+    }
+
+}
@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Binary deltas between byte arrays.  A delta holds the lengths of the
+ *  base and of the result as varints, followed by instructions: COPY,
+ *  an offset and a length, copying that range of the base; or INSERT,
+ *  a length and that many literal bytes.
+ *  @author Elizaveta Belkina
+ */
+class Delta {
+
+    /** Instruction copying a range of the base. */
+    private static final int COPY = 0;
+
+    /** Instruction inserting literal bytes. */
+    private static final int INSERT = 1;
+
+    /** Length of the blocks of the base that are indexed for matches. */
+    private static final int BLOCK = 16;
+
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+
+    /** PRIME to the power BLOCK - 1. */
+    private static final int TOP_POWER;
+
+    static {
+        int power = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            power *= PRIME;
+        }
+        TOP_POWER = power;
+    }
+
+    /** Returns a delta that turns BASE into TARGET.  Matches are found
+     *  by indexing the aligned BLOCK-byte blocks of BASE and sliding a
+     *  rolling hash over TARGET; each match is then extended in both
+     *  directions. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int off = 0; off + BLOCK <= base.length; off += BLOCK) {
+            blocks.putIfAbsent(hash(base, off), off);
+        }
+
+        int pending = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            Integer off = blocks.get(h);
+            if (off != null && Arrays.equals(base, off, off + BLOCK,
+                                             target, i, i + BLOCK)) {
+                int start = off, from = i;
+                while (from > pending && start > 0
+                       && base[start - 1] == target[from - 1]) {
+                    start -= 1;
+                    from -= 1;
+                }
+                int len = i + BLOCK - from;
+                while (from + len < target.length
+                       && start + len < base.length
+                       && base[start + len] == target[from + len]) {
+                    len += 1;
+                }
+                insert(out, target, pending, from);
+                out.write(COPY);
+                writeVarint(out, start);
+                writeVarint(out, len);
+                i = from + len;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - target[i] * TOP_POWER) * PRIME
+                        + target[i + BLOCK];
+                }
+                i += 1;
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = { 0 };
+        if (readVarint(delta, pos) != base.length) {
+            throw Utils.error("Delta does not apply to its base.");
+        }
+        byte[] result = new byte[readVarint(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int off = readVarint(delta, pos);
+                int len = readVarint(delta, pos);
+                System.arraycopy(base, off, result, written, len);
+                written += len;
+            } else {
+                int len = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, written, len);
+                pos[0] += len;
+                written += len;
+            }
+        }
+        if (written != result.length) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Writes an INSERT of TARGET[FROM..TO) to OUT, if nonempty. */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Returns the hash of the BLOCK bytes of DATA starting at OFF. */
+    private static int hash(byte[] data, int off) {
+        int h = 0;
+        for (int i = off; i < off + BLOCK; i += 1) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+
+    /** Writes the non-negative VALUE to OUT, seven bits per byte, low
+     *  bits first, with the high bit of each byte but the last set. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Returns the varint in DATA at POS[0], advancing POS[0] past it. */
+    static int readVarint(byte[] data, int[] pos) {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = data[pos[0]++];
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,305 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Line diffs between two texts whose lines were interned together.  As
+ *  in the patience diff of Git, the lines occurring exactly once in
+ *  each text are matched first, the longest run of them in the same
+ *  order in both is kept, and the gaps between those anchors are
+ *  diffed recursively.  Gaps with no such lines are diffed with the
+ *  O(ND) algorithm of Myers in its linear-space form, which finds the
+ *  middle snake of a shortest edit script by searching from both ends
+ *  and recurses on the two halves.  Common leading and trailing lines
+ *  are skipped at every step, so a diff of two large texts with few
+ *  scattered changes takes time linear in their length.
+ *  @author Elizaveta Belkina
+ */
+class Diff {
+
+    /** A change replacing the old lines from getOldStart() up to
+     *  getOldEnd() with the new lines from getNewStart() up to
+     *  getNewEnd().  Either range may be empty. */
+    static class Edit {
+
+        /** The change of old lines OLDSTART up to OLDEND into new lines
+         *  NEWSTART up to NEWEND. */
+        Edit(int oldStart, int oldEnd, int newStart, int newEnd) {
+            _oldStart = oldStart;
+            _oldEnd = oldEnd;
+            _newStart = newStart;
+            _newEnd = newEnd;
+        }
+
+        int getOldStart() {
+            return _oldStart;
+        }
+
+        int getOldEnd() {
+            return _oldEnd;
+        }
+
+        int getNewStart() {
+            return _newStart;
+        }
+
+        int getNewEnd() {
+            return _newEnd;
+        }
+
+        /** First old line replaced. */
+        private final int _oldStart;
+
+        /** End of the old lines replaced. */
+        private final int _oldEnd;
+
+        /** First new line. */
+        private final int _newStart;
+
+        /** End of the new lines. */
+        private final int _newEnd;
+    }
+
+    /** Returns the edits, in order and never adjacent, that turn the
+     *  lines OLDLINES into NEWLINES, which were interned together into
+     *  IDS distinct lines. */
+    static List<Edit> diff(Lines oldLines, Lines newLines, int ids) {
+        Diff diff = new Diff(oldLines.ids(), newLines.ids(), ids);
+        diff.diff(0, oldLines.size(), 0, newLines.size());
+        return diff._edits;
+    }
+
+    /** A diff of the lines with ids OLDIDS and NEWIDS, all below
+     *  IDS. */
+    private Diff(int[] oldIds, int[] newIds, int ids) {
+        _old = oldIds;
+        _new = newIds;
+        _oldCounts = new int[ids];
+        _newCounts = new int[ids];
+        _newLines = new int[ids];
+        _edits = new ArrayList<>();
+    }
+
+    /** Adds the edits turning old lines OLDSTART up to OLDEND into new
+     *  lines NEWSTART up to NEWEND. */
+    private void diff(int oldStart, int oldEnd, int newStart, int newEnd) {
+        while (oldStart < oldEnd && newStart < newEnd
+               && _old[oldStart] == _new[newStart]) {
+            oldStart += 1;
+            newStart += 1;
+        }
+        while (oldStart < oldEnd && newStart < newEnd
+               && _old[oldEnd - 1] == _new[newEnd - 1]) {
+            oldEnd -= 1;
+            newEnd -= 1;
+        }
+        if (oldStart == oldEnd || newStart == newEnd) {
+            addEdit(oldStart, oldEnd, newStart, newEnd);
+        } else if (!patience(oldStart, oldEnd, newStart, newEnd)) {
+            bisect(oldStart, oldEnd, newStart, newEnd);
+        }
+    }
+
+    /** Adds the edits turning old lines OLDSTART up to OLDEND into new
+     *  lines NEWSTART up to NEWEND by matching the lines unique to both
+     *  first, returning false, having added nothing, if there are
+     *  none. */
+    private boolean patience(int oldStart, int oldEnd, int newStart,
+                             int newEnd) {
+        for (int i = oldStart; i < oldEnd; i += 1) {
+            _oldCounts[_old[i]] += 1;
+        }
+        for (int j = newStart; j < newEnd; j += 1) {
+            _newCounts[_new[j]] += 1;
+            _newLines[_new[j]] = j;
+        }
+        int[] oldMatches =
+            new int[Math.min(oldEnd - oldStart, newEnd - newStart)];
+        int[] newMatches = new int[oldMatches.length];
+        int matches = 0;
+        for (int i = oldStart; i < oldEnd; i += 1) {
+            int id = _old[i];
+            if (_oldCounts[id] == 1 && _newCounts[id] == 1) {
+                oldMatches[matches] = i;
+                newMatches[matches] = _newLines[id];
+                matches += 1;
+            }
+        }
+        for (int i = oldStart; i < oldEnd; i += 1) {
+            _oldCounts[_old[i]] = 0;
+        }
+        for (int j = newStart; j < newEnd; j += 1) {
+            _newCounts[_new[j]] = 0;
+        }
+        if (matches == 0) {
+            return false;
+        }
+
+        int[] anchors = increasing(newMatches, matches);
+        for (int anchor : anchors) {
+            diff(oldStart, oldMatches[anchor], newStart, newMatches[anchor]);
+            oldStart = oldMatches[anchor] + 1;
+            newStart = newMatches[anchor] + 1;
+        }
+        diff(oldStart, oldEnd, newStart, newEnd);
+        return true;
+    }
+
+    /** Returns the indices, in order, of a longest increasing
+     *  subsequence of the first COUNT of VALUES, which are distinct,
+     *  found by patience sorting. */
+    private static int[] increasing(int[] values, int count) {
+        int[] tops = new int[count];
+        int[] previous = new int[count];
+        int piles = 0;
+        for (int k = 0; k < count; k += 1) {
+            int low = 0, high = piles;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[tops[mid]] < values[k]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[k] = low > 0 ? tops[low - 1] : -1;
+            tops[low] = k;
+            if (low == piles) {
+                piles += 1;
+            }
+        }
+        int[] result = new int[piles];
+        for (int k = tops[piles - 1], p = piles - 1; p >= 0;
+             k = previous[k], p -= 1) {
+            result[p] = k;
+        }
+        return result;
+    }
+
+    /** Adds the edits turning old lines OLDSTART up to OLDEND into new
+     *  lines NEWSTART up to NEWEND, none of them empty and neither
+     *  starting nor ending with a common line, by finding the middle
+     *  snake and diffing the lines before and after it.  Searching
+     *  forward from the starts and backward from the ends, the
+     *  furthest point reached on each diagonal is kept for the latest
+     *  number of differences only, so the space used is linear. */
+    private void bisect(int oldStart, int oldEnd, int newStart,
+                        int newEnd) {
+        int n = oldEnd - oldStart, m = newEnd - newStart;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD + 1;
+        int[] forward = new int[2 * offset + 1];
+        int[] backward = new int[forward.length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int forwardStart = 0, forwardEnd = 0;
+        int backwardStart = 0, backwardEnd = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+                int i = offset + k;
+                int x = k == -d || (k != d && forward[i - 1] < forward[i + 1])
+                    ? forward[i + 1] : forward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m
+                       && _old[oldStart + x] == _new[newStart + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[i] = x;
+                if (x > n) {
+                    forwardEnd += 2;
+                } else if (y > m) {
+                    forwardStart += 2;
+                } else if (odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < backward.length && backward[j] != -1
+                        && x >= n - backward[j]) {
+                        split(oldStart, oldEnd, newStart, newEnd, x, y);
+                        return;
+                    }
+                }
+            }
+            for (int k = -d + backwardStart; k <= d - backwardEnd;
+                 k += 2) {
+                int i = offset + k;
+                int x = k == -d
+                    || (k != d && backward[i - 1] < backward[i + 1])
+                    ? backward[i + 1] : backward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m
+                       && _old[oldEnd - 1 - x] == _new[newEnd - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[i] = x;
+                if (x > n) {
+                    backwardEnd += 2;
+                } else if (y > m) {
+                    backwardStart += 2;
+                } else if (!odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < forward.length && forward[j] != -1
+                        && forward[j] >= n - x) {
+                        split(oldStart, oldEnd, newStart, newEnd,
+                              forward[j], forward[j] - (delta - k));
+                        return;
+                    }
+                }
+            }
+        }
+        addEdit(oldStart, oldEnd, newStart, newEnd);
+    }
+
+    /** Adds the edits turning old lines OLDSTART up to OLDEND into new
+     *  lines NEWSTART up to NEWEND, diffing separately the lines before
+     *  and after old line OLDSTART + X and new line NEWSTART + Y. */
+    private void split(int oldStart, int oldEnd, int newStart, int newEnd,
+                       int x, int y) {
+        diff(oldStart, oldStart + x, newStart, newStart + y);
+        diff(oldStart + x, oldEnd, newStart + y, newEnd);
+    }
+
+    /** Adds the edit turning old lines OLDSTART up to OLDEND into new
+     *  lines NEWSTART up to NEWEND, unless both are empty, joining it
+     *  to the last edit if they are adjacent. */
+    private void addEdit(int oldStart, int oldEnd, int newStart,
+                         int newEnd) {
+        if (oldStart == oldEnd && newStart == newEnd) {
+            return;
+        }
+        int last = _edits.size() - 1;
+        if (last >= 0 && _edits.get(last).getOldEnd() == oldStart
+            && _edits.get(last).getNewEnd() == newStart) {
+            Edit previous = _edits.remove(last);
+            oldStart = previous.getOldStart();
+            newStart = previous.getNewStart();
+        }
+        _edits.add(new Edit(oldStart, oldEnd, newStart, newEnd));
+    }
+
+    /** Ids of the old lines. */
+    private final int[] _old;
+
+    /** Ids of the new lines. */
+    private final int[] _new;
+
+    /** Number of times each id occurs in the old lines being matched;
+     *  all zero between calls of patience. */
+    private final int[] _oldCounts;
+
+    /** Number of times each id occurs in the new lines being matched;
+     *  all zero between calls of patience. */
+    private final int[] _newCounts;
+
+    /** The last new line with each id, among those being matched. */
+    private final int[] _newLines;
+
+    /** The edits found so far, in order. */
+    private final List<Edit> _edits;
+
+}
@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/** The size, modification time and inode of a working file, as recorded
+ *  in the stat cache of the staging area.  A file whose stat data is
+ *  unchanged since it was hashed is taken to hold the same contents.
+ *  @author Elizaveta Belkina
+ */
+class FileStat implements Serializable {
+
+    /** Serialization version. */
+    private static final long serialVersionUID = 1L;
+
+    /** Coarsest modification-time granularity of common file systems
+     *  (FAT's two seconds), in nanoseconds.  A file modified this
+     *  recently when it was examined might be modified again without
+     *  its modification time changing. */
+    static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** The stat data of FILE, examined now.  Throws
+     *  IllegalArgumentException if FILE cannot be examined. */
+    static FileStat of(File file) {
+        long now = now();
+        try {
+            BasicFileAttributes attrs =
+                Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            Object key = attrs.fileKey();
+            return new FileStat(attrs.size(),
+                                attrs.lastModifiedTime().to(
+                                    TimeUnit.NANOSECONDS),
+                                key == null ? null : key.toString(), now);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stat data of a file of SIZE bytes, last modified at MODIFIED
+     *  nanoseconds since the epoch, whose device and inode are given by
+     *  KEY (null if unknown), examined at EXAMINED nanoseconds since the
+     *  epoch. */
+    private FileStat(long size, long modified, String key, long examined) {
+        _size = size;
+        _modified = modified;
+        _key = key;
+        _examined = examined;
+    }
+
+    /** Returns the current time, in nanoseconds since the epoch, as
+     *  the times of examination are recorded. */
+    static long now() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+
+    /** Returns the time this was taken, in nanoseconds since the
+     *  epoch. */
+    long examined() {
+        return _examined;
+    }
+
+    /** Returns the stat data read from IN, as written by write. */
+    static FileStat read(DataInput in) throws IOException {
+        long size = Codec.readVarint(in);
+        long modified = Codec.readVarint(in);
+        String key = Codec.readString(in);
+        return new FileStat(size, modified, key, Codec.readVarint(in));
+    }
+
+    /** Writes this to OUT: the size, modification time, key and time of
+     *  examination, with the numbers as varints. */
+    void write(DataOutput out) throws IOException {
+        Codec.writeVarint(out, _size);
+        Codec.writeVarint(out, _modified);
+        Codec.writeString(out, _key);
+        Codec.writeVarint(out, _examined);
+    }
+
+    /** Returns true iff the file this was taken from can be assumed to
+     *  be unchanged if its current stat data is CURRENT: the size,
+     *  modification time and inode are the same, and the file was not
+     *  modified too shortly before this was taken to tell. */
+    boolean unchanged(FileStat current) {
+        return _size == current._size && _modified == current._modified
+            && Objects.equals(_key, current._key)
+            && _modified + RACY_NANOS < _examined;
+    }
+
+    /** Size in bytes. */
+    private final long _size;
+
+    /** Modification time in nanoseconds since the epoch. */
+    private final long _modified;
+
+    /** Device and inode, or null if the platform does not provide
+     *  them. */
+    private final String _key;
+
+    /** Time these were read, in nanoseconds since the epoch. */
+    private final long _examined;
+
+}
@@ -1,15 +1,286 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
+/** The staging area: the files staged for addition and for removal,
+ *  and the stat cache of the working files.  It is stored as a snapshot
+ *  and a journal of the changes made since, so that saving a few
+ *  changes appends a few small records instead of rewriting everything
+ *  staged.  The journal is compacted into a new snapshot once it grows
+ *  larger than the snapshot and MIN_COMPACT_SIZE.
+ *  @author Elizaveta Belkina
+ */
 public class Index implements Serializable {
 
+    /** Serialization version, that of the format before the stat cache
+     *  was added, so that older staging areas can still be read. */
+    private static final long serialVersionUID = -3110597813012030971L;
+
+    /** Version of the binary format of the snapshot: this byte, the
+     *  generation, the time the working files were settled, the files
+     *  staged for addition and for removal, and then the number of stat
+     *  cache entries followed by each one's name, blob and stat data.
+     *  Version 1 had no generation and version 2 no settling time. */
+    static final int FORMAT = 3;
+
+    /** Version of the journal format: this byte and the generation of
+     *  the snapshot the journal follows, then one record per change. */
+    static final int JOURNAL_FORMAT = 1;
+
+    /** Name of the journal, in the directory holding the snapshot. */
+    static final String JOURNAL = "index-journal";
+
+    /** Size in bytes up to which the journal is never compacted. */
+    static final long MIN_COMPACT_SIZE = 64 << 10;
+
+    /** Kinds of journal record: a file staged for addition or removal,
+     *  followed by its name and blob; a file unstaged for addition or
+     *  removal, followed by its name; everything unstaged; and a blob
+     *  cached, followed by the name, blob and stat data, or forgotten,
+     *  followed by the name; and the working files settled, followed by
+     *  the time. */
+    private static final int STAGE = 1, STAGE_REMOVAL = 2, UNSTAGE = 3,
+        UNSTAGE_REMOVAL = 4, CLEAR = 5, CACHE = 6, UNCACHE = 7,
+        SETTLE = 8;
+
     public Index() {
         toAdd = new TreeMap<>();
         toDelete = new TreeMap<>();
     }
 
+    /** Returns the staging area stored in FILE, with the changes in its
+     *  journal applied.  FILE may be in the binary format or, if it was
+     *  written before that existed, serialized. */
+    public static Index read(File file) {
+        byte[] bytes = Utils.readContents(file);
+        Index result = decode(bytes);
+        result.source = file;
+        result.snapshotSize = bytes.length;
+        result.replay(journal(file));
+        return result;
+    }
+
+    /** Returns the staging area whose snapshot is BYTES, in either
+     *  format. */
+    static Index decode(byte[] bytes) {
+        if (Codec.isJavaSerialized(bytes)) {
+            return Utils.readObject(new ByteArrayInputStream(bytes),
+                                    Index.class);
+        }
+        try (DataInputStream in = Codec.input(bytes)) {
+            int format = in.readUnsignedByte();
+            if (format < 1 || format > FORMAT) {
+                throw Utils.error("Unknown staging area format %d.",
+                                  format);
+            }
+            Index result = new Index();
+            result.generation = format == 1 ? 0 : Codec.readVarint(in);
+            result.settled = format < 3 ? 0 : Codec.readVarint(in);
+            result.toAdd = Codec.readIds(in);
+            result.toDelete = Codec.readIds(in);
+            HashMap<String, CachedBlob> stats = result.stats();
+            for (int n = Codec.readLength(in); n > 0; n -= 1) {
+                String name = Codec.readString(in);
+                String blob = Codec.readId(in);
+                stats.put(name, new CachedBlob(FileStat.read(in), blob));
+            }
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Saves the changes made since this staging area was read from
+     *  FILE by appending them to the journal in a single write.  If
+     *  that would make the journal larger than both the snapshot and
+     *  MIN_COMPACT_SIZE, or this was not read from FILE, writes a new
+     *  snapshot of the whole staging area to FILE instead and starts an
+     *  empty journal. */
+    public void write(File file) {
+        if (file.equals(source) && pending().isEmpty()) {
+            return;
+        }
+        long size = journalSize;
+        for (byte[] record : pending()) {
+            size += record.length;
+        }
+        if (file.equals(source) && generation > 0
+            && size <= Math.max(MIN_COMPACT_SIZE, snapshotSize)) {
+            append(journal(file));
+        } else {
+            compact(file);
+        }
+        pending().clear();
+    }
+
+    /** Returns this staging area as a snapshot in the binary format. */
+    byte[] encode() {
+        return Codec.encode(out -> {
+            out.writeByte(FORMAT);
+            Codec.writeVarint(out, generation);
+            Codec.writeVarint(out, settled);
+            Codec.writeIds(out, toAdd);
+            Codec.writeIds(out, toDelete);
+            Codec.writeVarint(out, stats().size());
+            for (Map.Entry<String, CachedBlob> entry : stats().entrySet()) {
+                Codec.writeString(out, entry.getKey());
+                Codec.writeId(out, entry.getValue()._blob);
+                entry.getValue()._stat.write(out);
+            }
+        });
+    }
+
+    /** Returns the journal of the snapshot FILE. */
+    private static File journal(File file) {
+        return new File(file.getParentFile(), JOURNAL);
+    }
+
+    /** Applies the records of JOURNAL, if it exists and follows this
+     *  snapshot, up to the end or to a record cut short by a crash, and
+     *  records how much of it was applied. */
+    private void replay(File journal) {
+        journalSize = 0;
+        if (!journal.isFile()) {
+            return;
+        }
+        byte[] bytes = Utils.readContents(journal);
+        try (DataInputStream in = Codec.input(bytes)) {
+            if (in.readUnsignedByte() != JOURNAL_FORMAT
+                || Codec.readVarint(in) != generation) {
+                return;
+            }
+            while (true) {
+                journalSize = bytes.length - in.available();
+                apply(in);
+            }
+        } catch (EOFException excp) {
+            return;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Applies the journal record read from IN.  Changes nothing if the
+     *  record is incomplete. */
+    private void apply(DataInput in) throws IOException {
+        int kind = in.readUnsignedByte();
+        if (kind == SETTLE) {
+            settled = Codec.readVarint(in);
+            return;
+        }
+        String name = kind == CLEAR ? null : Codec.readString(in);
+        switch (kind) {
+        case STAGE:
+            toAdd.put(name, Codec.readId(in));
+            break;
+        case STAGE_REMOVAL:
+            toDelete.put(name, Codec.readId(in));
+            break;
+        case UNSTAGE:
+            toAdd.remove(name);
+            break;
+        case UNSTAGE_REMOVAL:
+            toDelete.remove(name);
+            break;
+        case CLEAR:
+            toAdd.clear();
+            toDelete.clear();
+            break;
+        case CACHE:
+            String blob = Codec.readId(in);
+            stats().put(name, new CachedBlob(FileStat.read(in), blob));
+            break;
+        case UNCACHE:
+            stats().remove(name);
+            break;
+        default:
+            throw Utils.error("Corrupt staging journal.");
+        }
+    }
+
+    /** Appends the pending records to JOURNAL, first discarding any
+     *  part of it that was not applied when this was read and starting
+     *  it afresh if none was. */
+    private void append(File journal) {
+        byte[] records = Codec.encode(out -> {
+            if (journalSize == 0) {
+                out.writeByte(JOURNAL_FORMAT);
+                Codec.writeVarint(out, generation);
+            }
+            for (byte[] record : pending()) {
+                out.write(record);
+            }
+        });
+        try (FileChannel channel =
+             FileChannel.open(journal.toPath(), StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE)) {
+            channel.truncate(journalSize);
+            ByteBuffer buffer = ByteBuffer.wrap(records);
+            long position = journalSize;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            Transaction.flush(channel);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        journalSize += records.length;
+    }
+
+    /** Replaces the snapshot FILE with one of this staging area, in a
+     *  new generation, through a temporary file, and deletes the
+     *  journal, which belongs to the old one. */
+    private void compact(File file) {
+        generation += 1;
+        byte[] snapshot = encode();
+        Transaction.replace(file, snapshot);
+        journal(file).delete();
+        source = file;
+        snapshotSize = snapshot.length;
+        journalSize = 0;
+    }
+
+    /** Adds to the pending records one of kind KIND for the file NAME,
+     *  with BLOB and STAT if they are not null. */
+    private void record(int kind, String name, String blob, FileStat stat) {
+        pending().add(Codec.encode(out -> {
+            out.writeByte(kind);
+            if (name != null) {
+                Codec.writeString(out, name);
+            }
+            if (blob != null) {
+                Codec.writeId(out, blob);
+            }
+            if (stat != null) {
+                stat.write(out);
+            }
+        }));
+    }
+
+    /** Returns the records of the changes not yet saved. */
+    private ArrayList<byte[]> pending() {
+        if (pending == null) {
+            pending = new ArrayList<>();
+        }
+        return pending;
+    }
+
     public TreeMap<String, String> getAdd() {
         return toAdd;
     }
@@ -20,15 +291,20 @@ public class Index implements Serializable {
 
     public void toStage(String filename, String blob) {
         toAdd.put(filename, blob);
+        record(STAGE, filename, blob, null);
     }
 
     public void toRemove(String filename, String blob) {
         toDelete.put(filename, blob);
+        record(STAGE_REMOVAL, filename, blob, null);
     }
 
     public void reset() {
-        toAdd.clear();
-        toDelete.clear();
+        if (!empty()) {
+            toAdd.clear();
+            toDelete.clear();
+            record(CLEAR, null, null, null);
+        }
     }
 
     public boolean fileExistsToAdd(String filename) {
@@ -62,9 +338,151 @@ public class Index implements Serializable {
     public void remove(String filename) {
         if (toAdd.containsKey(filename)) {
             toAdd.remove(filename);
+            record(UNSTAGE, filename, null, null);
         } else if (toDelete.containsKey(filename)) {
             toDelete.remove(filename);
+            record(UNSTAGE_REMOVAL, filename, null, null);
+        }
+    }
+
+    /** Returns the id of the blob holding the contents of the working
+     *  file FILE, tracked as NAME: from the stat cache if FILE's stat
+     *  data is unchanged, and otherwise by hashing FILE and caching the
+     *  result. */
+    public String blobOf(String name, File file) {
+        FileStat stat = FileStat.of(file);
+        String blob = cachedBlob(name, stat);
+        if (blob == null) {
+            blob = Utils.sha1Contents(file);
+            cacheBlob(name, stat, blob);
         }
+        return blob;
+    }
+
+    /** Returns the blob cached for the working file NAME, if its current
+     *  stat data STAT shows that it is unchanged, and otherwise null. */
+    public String cachedBlob(String name, FileStat stat) {
+        CachedBlob cached = stats().get(name);
+        if (cached != null && cached._stat.unchanged(stat)) {
+            return cached._blob;
+        }
+        return null;
+    }
+
+    /** Records that the working file NAME, whose stat data was STAT
+     *  before it was read, holds BLOB. */
+    public void cacheBlob(String name, FileStat stat, String blob) {
+        stats().put(name, new CachedBlob(stat, blob));
+        record(CACHE, name, blob, stat);
+        statsChanged = true;
+    }
+
+    /** Forgets the cached blobs of working files not in NAMES.  The
+     *  working files are no longer settled if any is forgotten, as it
+     *  may be tracked. */
+    public void retainStats(Collection<String> names) {
+        Iterator<String> cached = stats().keySet().iterator();
+        while (cached.hasNext()) {
+            String name = cached.next();
+            if (!names.contains(name)) {
+                cached.remove();
+                record(UNCACHE, name, null, null);
+                statsChanged = true;
+                unsettle();
+            }
+        }
+    }
+
+    /** Forgets the cached blob of the working file NAME, which is no
+     *  longer tracked. */
+    public void uncacheBlob(String name) {
+        if (stats().remove(name) != null) {
+            record(UNCACHE, name, null, null);
+            statsChanged = true;
+        }
+    }
+
+    /** Returns the names of the working files with cached blobs. */
+    public Set<String> cachedNames() {
+        return stats().keySet();
+    }
+
+    /** Returns the blob cached for the working file NAME if it can be
+     *  taken to be the one committed there: the working files were
+     *  settled after it was cached and its current stat data STAT shows
+     *  it unchanged.  Returns null otherwise. */
+    public String settledBlob(String name, FileStat stat) {
+        CachedBlob cached = stats().get(name);
+        if (cached != null && cached._stat.examined() < settled
+            && cached._stat.unchanged(stat)) {
+            return cached._blob;
+        }
+        return null;
+    }
+
+    /** Records that the working files were settled at TIME, in
+     *  nanoseconds since the epoch: every tracked file then had a
+     *  cached blob, and every one cached before TIME whose stat data
+     *  is still unchanged holds its blob in the head commit.  A
+     *  checkout or reset that verified or wrote every tracked file
+     *  settles them; commits keep them settled, since the files they
+     *  change were cached when staged, after TIME. */
+    public void settle(long time) {
+        settled = time;
+        pending().add(Codec.encode(out -> {
+            out.writeByte(SETTLE);
+            Codec.writeVarint(out, time);
+        }));
+    }
+
+    /** Records that the working files may have tracked files without
+     *  cached blobs, or whose cached blobs are not those committed, as
+     *  after a merge writes files without caching them. */
+    public void unsettle() {
+        if (settled != 0) {
+            settle(0);
+        }
+    }
+
+    /** Returns the time the working files were last settled, or 0 if
+     *  they are not settled. */
+    public long settled() {
+        return settled;
+    }
+
+    /** Returns true iff the stat cache changed since this was read. */
+    public boolean statsChanged() {
+        return statsChanged;
+    }
+
+    /** Returns the stat cache, which staging areas written before it
+     *  existed lack. */
+    private HashMap<String, CachedBlob> stats() {
+        if (stats == null) {
+            stats = new HashMap<>();
+        }
+        return stats;
+    }
+
+    /** A stat cache entry: the blob a working file held when it had
+     *  given stat data. */
+    private static class CachedBlob implements Serializable {
+
+        /** Serialization version. */
+        private static final long serialVersionUID = 1L;
+
+        /** An entry for a file that held BLOB when its stat data was
+         *  STAT. */
+        CachedBlob(FileStat stat, String blob) {
+            _stat = stat;
+            _blob = blob;
+        }
+
+        /** Stat data of the file when it was hashed. */
+        private final FileStat _stat;
+
+        /** The id of the blob with the file's contents. */
+        private final String _blob;
     }
 
     /** Files staged for addition. */
@@ -73,4 +491,33 @@ public class Index implements Serializable {
     /** Files staged for removal. */
     private TreeMap<String, String> toDelete;
 
+    /** The stat cache: the blob each working file held when last
+     *  hashed, with its stat data at the time. */
+    private HashMap<String, CachedBlob> stats;
+
+    /** True iff stats changed since this was read. */
+    private transient boolean statsChanged;
+
+    /** The snapshot this was read from, or null if it was not read. */
+    private transient File source;
+
+    /** Time the working files were settled, in nanoseconds since the
+     *  epoch, or 0 if they are not. */
+    private transient long settled;
+
+    /** Generation of the snapshot, which its journal records, so that
+     *  a journal left behind by an interrupted compaction is ignored.
+     *  0 for snapshots in formats without one. */
+    private transient long generation;
+
+    /** Size in bytes of the snapshot. */
+    private transient long snapshotSize;
+
+    /** Size in bytes of the part of the journal that was applied, and
+     *  is kept when changes are appended. */
+    private transient long journalSize;
+
+    /** Encoded journal records of the changes not yet saved. */
+    private transient ArrayList<byte[]> pending;
+
 }
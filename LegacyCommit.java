@@ -0,0 +1,174 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.TreeMap;
+
+/** A commit in the original on-disk format, in which every commit
+ *  embedded its parent and merge parent as whole Commit objects.
+ *  Only used to migrate old repositories to id-based parents.
+ *  @author Elizaveta Belkina
+ */
+class LegacyCommit implements Serializable {
+
+    /** Serialization version.  Old commits are read with this class's
+     *  own descriptor in place of the stored one, so it need not match
+     *  theirs. */
+    private static final long serialVersionUID = 1L;
+
+    /** Log message. */
+    private String _message;
+
+    /** Timestamp of the commit. */
+    private String _timestamp;
+
+    /** Embedded head commit parent. */
+    private LegacyCommit _parent;
+
+    /** Embedded merge parent. */
+    private LegacyCommit _mergeParent;
+
+    /** Tracked filenames and their blobs. */
+    private TreeMap<String, String> _contents;
+
+    /** The class descriptor of gitlet.Commit as found in the old files,
+     *  used to reproduce their exact serialized bytes. */
+    private transient ObjectStreamClass _streamDesc;
+
+    LegacyCommit getParent() {
+        return _parent;
+    }
+
+    LegacyCommit getMergeParent() {
+        return _mergeParent;
+    }
+
+    /** Returns the commit read from STORED.  The result is a
+     *  LegacyCommit if it is in the old embedded-parent format, a Commit
+     *  if it is serialized in the current format, and null if it is in
+     *  the binary format, which needs no upgrade. */
+    static Object read(InputStream stored) {
+        try {
+            if (!Codec.isJavaSerialized(stored)) {
+                stored.close();
+                return null;
+            }
+            LegacyInputStream in = new LegacyInputStream(stored);
+            Object result = in.readObject();
+            in.close();
+            if (result instanceof LegacyCommit) {
+                ((LegacyCommit) result).setStreamDesc(in._legacyDesc);
+            }
+            return result;
+        } catch (IOException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the id this commit had in the old format: the SHA-1 of
+     *  its serialization as a gitlet.Commit. */
+    String id() {
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            ObjectOutputStream out = new LegacyOutputStream(stream,
+                                                            _streamDesc);
+            out.writeObject(this);
+            out.close();
+            return Utils.sha1(stream.toByteArray());
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing commit.");
+        }
+    }
+
+    /** Converts this commit to the current format. */
+    Commit toCommit() {
+        Commit result =
+            new Commit(_message, _parent == null ? null : _parent.id(),
+                       _timestamp,
+                       _mergeParent == null ? null : _mergeParent.id());
+        result.setContents(_contents);
+        return result;
+    }
+
+    /** Records DESC as the stream descriptor of this commit and of all
+     *  of its embedded ancestors. */
+    private void setStreamDesc(ObjectStreamClass desc) {
+        ArrayDeque<LegacyCommit> todo = new ArrayDeque<>();
+        todo.add(this);
+        while (!todo.isEmpty()) {
+            LegacyCommit commit = todo.remove();
+            if (commit._streamDesc == null) {
+                commit._streamDesc = desc;
+                if (commit._parent != null) {
+                    todo.add(commit._parent);
+                }
+                if (commit._mergeParent != null) {
+                    todo.add(commit._mergeParent);
+                }
+            }
+        }
+    }
+
+    /** Reads gitlet.Commit objects, substituting LegacyCommit for those
+     *  written in the embedded-parent format. */
+    private static class LegacyInputStream extends ObjectInputStream {
+
+        /** The old gitlet.Commit descriptor, once seen. */
+        private ObjectStreamClass _legacyDesc;
+
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+            throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            if (desc.getName().equals(Commit.class.getName())) {
+                ObjectStreamField parent = desc.getField("_parent");
+                if (parent != null && parent.getTypeString()
+                        .equals("L" + COMMIT_PATH + ";")) {
+                    _legacyDesc = desc;
+                    return ObjectStreamClass.lookup(LegacyCommit.class);
+                }
+            }
+            return desc;
+        }
+    }
+
+    /** Writes LegacyCommits with the gitlet.Commit descriptor they were
+     *  originally read with. */
+    private static class LegacyOutputStream extends ObjectOutputStream {
+
+        /** The descriptor to write in place of LegacyCommit's own. */
+        private final ObjectStreamClass _desc;
+
+        LegacyOutputStream(ByteArrayOutputStream out,
+                           ObjectStreamClass desc) throws IOException {
+            super(out);
+            _desc = desc;
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc)
+            throws IOException {
+            if (desc.forClass() == LegacyCommit.class) {
+                super.writeClassDescriptor(_desc);
+            } else {
+                super.writeClassDescriptor(desc);
+            }
+        }
+    }
+
+    /** The internal name of gitlet.Commit in field type strings. */
+    private static final String COMMIT_PATH =
+        Commit.class.getName().replace('.', '/');
+
+}
@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Three-way merges of texts, line by line, as diff3 does.  Both new
+ *  versions are diffed against the base, and the edits of the two
+ *  diffs are grouped where they overlap or touch in the base.  A group
+ *  holding edits of one side only takes that side's lines, as does a
+ *  group whose two sides made the same change; any other group is a
+ *  conflict, written between markers with both sides' lines.  Lines
+ *  outside every group are the same in all three versions.
+ *  @author Elizaveta Belkina
+ */
+class LineMerge {
+
+    /** Marks the start of our side of a conflict. */
+    static final byte[] OURS_MARKER =
+        "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Separates the two sides of a conflict. */
+    static final byte[] SEPARATOR =
+        "=======\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Marks the end of their side of a conflict. */
+    static final byte[] THEIRS_MARKER =
+        ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Writes to OUT the merge of the changes that OURS and THEIRS make
+     *  to BASE, and returns true iff some of them conflicted. */
+    static boolean merge(Lines base, Lines ours, Lines theirs,
+                         OutputStream out) throws IOException {
+        int ids = Lines.intern(base, ours, theirs);
+        List<Diff.Edit> oursEdits = Diff.diff(base, ours, ids);
+        List<Diff.Edit> theirsEdits = Diff.diff(base, theirs, ids);
+        boolean conflict = false;
+        int o = 0, t = 0;
+        int next = 0, oursShift = 0, theirsShift = 0;
+        while (o < oursEdits.size() || t < theirsEdits.size()) {
+            int firstOurs = o, firstTheirs = t;
+            int start = Math.min(oldStart(oursEdits, o),
+                                 oldStart(theirsEdits, t));
+            int end = start;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                if (oldStart(oursEdits, o) <= end) {
+                    end = Math.max(end, oursEdits.get(o).getOldEnd());
+                    o += 1;
+                    grew = true;
+                }
+                if (oldStart(theirsEdits, t) <= end) {
+                    end = Math.max(end, theirsEdits.get(t).getOldEnd());
+                    t += 1;
+                    grew = true;
+                }
+            }
+
+            base.write(out, next, start);
+            int oursStart = start + oursShift, oursEnd = end + oursShift;
+            if (o > firstOurs) {
+                Diff.Edit first = oursEdits.get(firstOurs);
+                Diff.Edit last = oursEdits.get(o - 1);
+                oursStart = first.getNewStart() - first.getOldStart()
+                    + start;
+                oursShift = last.getNewEnd() - last.getOldEnd();
+                oursEnd = end + oursShift;
+            }
+            int theirsStart = start + theirsShift;
+            int theirsEnd = end + theirsShift;
+            if (t > firstTheirs) {
+                Diff.Edit first = theirsEdits.get(firstTheirs);
+                Diff.Edit last = theirsEdits.get(t - 1);
+                theirsStart = first.getNewStart() - first.getOldStart()
+                    + start;
+                theirsShift = last.getNewEnd() - last.getOldEnd();
+                theirsEnd = end + theirsShift;
+            }
+            if (t == firstTheirs
+                || ours.sameLines(oursStart, oursEnd, theirs, theirsStart,
+                                  theirsEnd)) {
+                ours.write(out, oursStart, oursEnd);
+            } else if (o == firstOurs) {
+                theirs.write(out, theirsStart, theirsEnd);
+            } else {
+                conflict = true;
+                out.write(OURS_MARKER);
+                writeTerminated(ours, oursStart, oursEnd, out);
+                out.write(SEPARATOR);
+                writeTerminated(theirs, theirsStart, theirsEnd, out);
+                out.write(THEIRS_MARKER);
+            }
+            next = end;
+        }
+        base.write(out, next, base.size());
+        return conflict;
+    }
+
+    /** Returns the first old line changed by the edit K of EDITS, or
+     *  Integer.MAX_VALUE if there are no more edits. */
+    private static int oldStart(List<Diff.Edit> edits, int k) {
+        return k < edits.size() ? edits.get(k).getOldStart()
+            : Integer.MAX_VALUE;
+    }
+
+    /** Writes lines FROM up to TO of TEXT to OUT, followed by a line
+     *  terminator if the last of them lacks one, so that a conflict
+     *  marker written next starts a line. */
+    private static void writeTerminated(Lines text, int from, int to,
+                                        OutputStream out)
+            throws IOException {
+        text.write(out, from, to);
+        if (!text.terminated(from, to)) {
+            out.write('\n');
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** The lines of a text held as bytes, for diffing and merging files
+ *  without decoding them into Strings.  Each line includes its line
+ *  terminator; only the last line may lack one.  Each line also has an
+ *  id, set by intern, which is the same for equal lines of all the
+ *  texts interned together, so that diffs compare ints rather than
+ *  bytes.
+ *  @author Elizaveta Belkina
+ */
+class Lines {
+
+    /** Number of leading bytes searched for a NUL byte by isBinary, as
+     *  Git does. */
+    static final int BINARY_PREFIX = 8000;
+
+    /** Size of the buffer through which lines of texts not backed by
+     *  an array are written. */
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+
+    /** The lines of the bytes of TEXT between its position and its
+     *  limit. */
+    Lines(ByteBuffer text) {
+        _text = text;
+        int from = text.position(), to = text.limit();
+        int[] starts = new int[Math.max(16, (to - from) / 32)];
+        int count = 0;
+        starts[0] = from;
+        for (int i = from; i < to; i += 1) {
+            if (text.get(i) == '\n') {
+                count += 1;
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, 2 * count);
+                }
+                starts[count] = i + 1;
+            }
+        }
+        if (starts[count] < to) {
+            count += 1;
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count + 1);
+            }
+            starts[count] = to;
+        }
+        _starts = Arrays.copyOf(starts, count + 1);
+    }
+
+    /** The lines of TEXT. */
+    Lines(byte[] text) {
+        this(ByteBuffer.wrap(text));
+    }
+
+    /** Returns the number of lines. */
+    int size() {
+        return _starts.length - 1;
+    }
+
+    /** Returns the ids of the lines, set by intern. */
+    int[] ids() {
+        return _ids;
+    }
+
+    /** Returns true iff these lines look like the contents of a binary
+     *  file rather than text: the first BINARY_PREFIX bytes hold a NUL
+     *  byte. */
+    boolean isBinary() {
+        int from = _starts[0];
+        int to = Math.min(_starts[size()], from + BINARY_PREFIX);
+        for (int i = from; i < to; i += 1) {
+            if (_text.get(i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns true iff there are no lines FROM up to TO or the last of
+     *  them ends with a line terminator. */
+    boolean terminated(int from, int to) {
+        return to == from || _text.get(_starts[to] - 1) == '\n';
+    }
+
+    /** Returns true iff the lines FROM up to TO of these lines are the
+     *  same as lines OTHERFROM up to OTHERTO of OTHER, which must have
+     *  been interned together with these. */
+    boolean sameLines(int from, int to, Lines other, int otherFrom,
+                      int otherTo) {
+        return to - from == otherTo - otherFrom
+            && Arrays.equals(_ids, from, to, other._ids, otherFrom,
+                             otherTo);
+    }
+
+    /** Writes lines FROM up to TO to OUT. */
+    void write(OutputStream out, int from, int to) throws IOException {
+        int start = _starts[from], end = _starts[to];
+        if (_text.hasArray()) {
+            out.write(_text.array(), _text.arrayOffset() + start,
+                      end - start);
+            return;
+        }
+        byte[] buffer = new byte[Math.min(COPY_BUFFER_SIZE, end - start)];
+        while (start < end) {
+            int length = Math.min(buffer.length, end - start);
+            _text.get(start, buffer, 0, length);
+            out.write(buffer, 0, length);
+            start += length;
+        }
+    }
+
+    /** Gives each line of TEXTS an id, so that two lines have the same
+     *  id iff their bytes are equal.  Lines are hashed into an open
+     *  addressing table holding the id of the first line seen with each
+     *  contents, and compared byte by byte only when their hashes
+     *  match.  The other texts are usually versions of the first, so
+     *  each is also walked in step with it: a line equal to the next
+     *  line of the first text takes its id without a lookup, which
+     *  saves most of the scattered reads of the table on large texts.
+     *  Returns the number of distinct lines, so that the ids run from
+     *  0 up to it. */
+    static int intern(Lines... texts) {
+        int total = 0;
+        for (Lines text : texts) {
+            total += text.size();
+        }
+        int[] table = new int[Math.max(16,
+                Integer.highestOneBit(Math.max(1, total)) << 2)];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1;
+        int[] hashes = new int[total];
+        Lines[] firstText = new Lines[total];
+        int[] firstLine = new int[total];
+        int ids = 0;
+        Lines guide = texts.length > 0 ? texts[0] : null;
+        for (Lines text : texts) {
+            text._ids = new int[text.size()];
+            int next = text == guide ? guide.size() : 0;
+            for (int line = 0; line < text.size(); line += 1) {
+                if (next < guide.size() && text.equal(line, guide, next)) {
+                    text._ids[line] = guide._ids[next];
+                    next += 1;
+                    continue;
+                }
+                int hash = text.hash(line);
+                int slot = mix(hash) & mask;
+                while (table[slot] >= 0) {
+                    int id = table[slot];
+                    if (hashes[id] == hash
+                        && text.equal(line, firstText[id], firstLine[id])) {
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                int id = table[slot];
+                if (id < 0) {
+                    id = ids;
+                    table[slot] = id;
+                    hashes[id] = hash;
+                    firstText[id] = text;
+                    firstLine[id] = line;
+                    ids += 1;
+                } else if (firstText[id] == guide && firstLine[id] >= next) {
+                    next = firstLine[id] + 1;
+                }
+                text._ids[line] = id;
+            }
+        }
+        return ids;
+    }
+
+    /** Returns a hash of the bytes of line LINE. */
+    private int hash(int line) {
+        int result = 0;
+        int end = _starts[line + 1];
+        if (_text.hasArray()) {
+            byte[] array = _text.array();
+            int offset = _text.arrayOffset();
+            for (int i = _starts[line] + offset; i < end + offset; i += 1) {
+                result = 31 * result + array[i];
+            }
+        } else {
+            for (int i = _starts[line]; i < end; i += 1) {
+                result = 31 * result + _text.get(i);
+            }
+        }
+        return result;
+    }
+
+    /** Returns true iff line LINE has the same bytes as line OTHERLINE
+     *  of OTHER. */
+    private boolean equal(int line, Lines other, int otherLine) {
+        int start = _starts[line], length = _starts[line + 1] - start;
+        int otherStart = other._starts[otherLine];
+        if (other._starts[otherLine + 1] - otherStart != length) {
+            return false;
+        }
+        if (_text.hasArray() && other._text.hasArray()) {
+            int offset = _text.arrayOffset() + start;
+            int otherOffset = other._text.arrayOffset() + otherStart;
+            return Arrays.equals(_text.array(), offset, offset + length,
+                                 other._text.array(), otherOffset,
+                                 otherOffset + length);
+        }
+        for (int i = 0; i < length; i += 1) {
+            if (_text.get(start + i) != other._text.get(otherStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns HASH with its bits spread, so that hashes differing in
+     *  their high bits fall into different slots. */
+    private static int mix(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /** The bytes holding the lines. */
+    private final ByteBuffer _text;
+
+    /** The index in _text of the start of each line, followed by the
+     *  end of the last line. */
+    private final int[] _starts;
+
+    /** The id of each line, once interned. */
+    private int[] _ids;
+
+}
@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/** A map holding values of at most a given total weight, which evicts
+ *  its least recently used entries to stay within that weight.  Counts
+ *  the hits and misses of lookups.  Safe for use by several threads.
+ *  @param <K> the type of keys.
+ *  @param <V> the type of values.
+ *  @author Elizaveta Belkina
+ */
+class LruCache<K, V> {
+
+    /** A cache holding values of total weight at most CAPACITY, where
+     *  WEIGHER gives the weight of each value. */
+    LruCache(long capacity, ToLongFunction<V> weigher) {
+        _capacity = capacity;
+        _weigher = weigher;
+        _entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /** Returns the value cached for KEY, or null if there is none. */
+    synchronized V get(K key) {
+        V result = _entries.get(key);
+        if (result == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return result;
+    }
+
+    /** Caches VALUE for KEY, evicting older entries as needed.  A value
+     *  heavier than the whole capacity is not cached. */
+    synchronized void put(K key, V value) {
+        long weight = _weigher.applyAsLong(value);
+        if (weight > _capacity) {
+            return;
+        }
+        V old = _entries.put(key, value);
+        if (old != null) {
+            _weight -= _weigher.applyAsLong(old);
+        }
+        _weight += weight;
+        Iterator<Map.Entry<K, V>> eldest = _entries.entrySet().iterator();
+        while (_weight > _capacity) {
+            _weight -= _weigher.applyAsLong(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /** Removes every entry. */
+    synchronized void clear() {
+        _entries.clear();
+        _weight = 0;
+    }
+
+    /** Returns the number of lookups that found a value. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Returns the number of lookups that found no value. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Greatest total weight of the cached values. */
+    private final long _capacity;
+
+    /** Gives the weight of each value. */
+    private final ToLongFunction<V> _weigher;
+
+    /** The cached entries, from least to most recently used. */
+    private final LinkedHashMap<K, V> _entries;
+
+    /** Total weight of the cached values. */
+    private long _weight;
+
+    /** Lookup counts. */
+    private long _hits, _misses;
+
+}
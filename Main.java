@@ -1,6 +1,8 @@
 package gitlet;
 
+import java.nio.channels.SocketChannel;
 import java.text.ParseException;
+import java.util.Arrays;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Elizaveta Belkina
@@ -10,14 +12,19 @@ public class Main {
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
     public static void main(String... args) throws ParseException {
+        run(args);
+        System.exit(0);
+    }
 
+    /** Runs the command ARGS, as for main, without exiting. */
+    static void run(String... args) throws ParseException {
         if (args.length < 1) {
             System.out.println("Please enter a command.");
         } else {
             int numArgs = args.length;
             switchCase1(numArgs, args);
         }
-        System.exit(0);
+        Command.traceCaches();
     }
 
     static void helperCheckout(int numArgs, String[] args) {
@@ -38,8 +45,10 @@ public class Main {
             }
             break;
         case "add":
-            if (checkArgs(numArgs, 2)) {
-                Command.add(args[1]);
+            if (numArgs >= 2) {
+                Command.add(Arrays.copyOfRange(args, 1, numArgs));
+            } else {
+                checkArgs(numArgs, 2);
             }
             break;
         case "commit":
@@ -103,12 +112,61 @@ public class Main {
                 Command.merge(args[1]);
             }
             break;
+        case "upgrade":
+            if (checkArgs(numArgs, 1)) {
+                Command.upgrade();
+            }
+            break;
+        case "pack":
+            if (checkArgs(numArgs, 1)) {
+                Command.pack();
+            }
+            break;
+        case "rebuild-index":
+            if (checkArgs(numArgs, 1)) {
+                Command.rebuildIndex();
+            }
+            break;
+        case "daemon":
+            helperDaemon(numArgs, args);
+            break;
+        case "diff":
+            helperDiff(numArgs, args);
+            break;
         default:
             System.out.println("No command with that name exists.");
             break;
         }
     }
 
+    static void helperDiff(int numArgs, String[] args) {
+        if (numArgs == 1) {
+            Command.diff();
+        } else if (numArgs == 2 && (args[1].equals("--staged")
+                                    || args[1].equals("--cached"))) {
+            Command.diffStaged();
+        } else if (numArgs == 3) {
+            Command.diff(args[1], args[2]);
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    static void helperDaemon(int numArgs, String[] args) {
+        if (numArgs == 1) {
+            Daemon.serve();
+        } else if (numArgs == 2 && args[1].equals(Daemon.STOP)) {
+            SocketChannel daemon = Client.connect();
+            if (daemon == null) {
+                System.out.println("No daemon is running.");
+            } else {
+                Client.forward(daemon, args);
+            }
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
     static boolean checkArgs(int arguments, int expectedNum) {
         if (arguments == expectedNum) {
             return true;
@@ -0,0 +1,131 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/** An index from commit messages to the ids of the commits with those
+ *  messages.  The ids of the commits with message M are stored, as
+ *  consecutive id bytes in the order of the commit journal, in a
+ *  bucket file named by the SHA-1 of M and fanned out like the
+ *  objects of an ObjectStore, so that a lookup reads just one small
+ *  file.
+ *  @author Elizaveta Belkina
+ */
+class MessageIndex {
+
+    /** An index stored under DIR, which need not exist yet. */
+    MessageIndex(File dir) {
+        _dir = dir;
+    }
+
+    /** Returns the ids of the commits with MESSAGE, in the order they
+     *  were added or set. */
+    List<String> ids(String message) {
+        ArrayList<String> result = new ArrayList<>();
+        File bucket = bucket(message);
+        if (bucket.isFile()) {
+            byte[] ids = Utils.readContents(bucket);
+            for (int off = 0; off + Utils.UID_BYTES <= ids.length;
+                 off += Utils.UID_BYTES) {
+                result.add(Utils.uidString(ids, off));
+            }
+        }
+        return result;
+    }
+
+    /** Records that commit ID, which follows every commit in the index,
+     *  has MESSAGE. */
+    void add(String message, String id) {
+        File bucket = bucket(message);
+        bucket.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(bucket, true)) {
+            out.write(Utils.uidBytes(id));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Records that the commits with MESSAGE are those with IDS, in
+     *  order, replacing the bucket of MESSAGE atomically. */
+    void set(String message, List<String> ids) {
+        File bucket = bucket(message);
+        bucket.getParentFile().mkdirs();
+        File pending = new File(bucket.getPath() + ".tmp");
+        Utils.writeContents(pending, bytes(ids));
+        if (!pending.renameTo(bucket)) {
+            throw Utils.error("Could not write %s.", bucket);
+        }
+    }
+
+    /** Writes an index of the commits in JOURNAL to DIR, replacing any
+     *  index there.  The ids are grouped by message first, so that each
+     *  bucket is written once.  The new index is built beside DIR and
+     *  then moved into place. */
+    static void write(File dir, CommitJournal journal) {
+        HashMap<String, ArrayList<String>> buckets = new HashMap<>();
+        try (CommitJournal.Reader entries = journal.reader()) {
+            for (CommitJournal.Entry entry = entries.next(); entry != null;
+                 entry = entries.next()) {
+                buckets.computeIfAbsent(entry.getMessage(),
+                                        m -> new ArrayList<>())
+                    .add(entry.getId());
+            }
+        }
+        File pending = new File(dir.getPath() + ".tmp");
+        delete(pending);
+        MessageIndex index = new MessageIndex(pending);
+        HashSet<File> shards = new HashSet<>();
+        for (Map.Entry<String, ArrayList<String>> bucket
+                 : buckets.entrySet()) {
+            File file = index.bucket(bucket.getKey());
+            if (shards.add(file.getParentFile())) {
+                file.getParentFile().mkdirs();
+            }
+            Utils.writeContents(file, bytes(bucket.getValue()));
+        }
+        pending.mkdir();
+        delete(dir);
+        if (!pending.renameTo(dir)) {
+            throw Utils.error("Could not write %s.", dir);
+        }
+    }
+
+    /** Returns the contents of a bucket holding IDS, in order. */
+    private static byte[] bytes(List<String> ids) {
+        byte[] result = new byte[ids.size() * Utils.UID_BYTES];
+        for (int k = 0; k < ids.size(); k += 1) {
+            System.arraycopy(Utils.uidBytes(ids.get(k)), 0, result,
+                             k * Utils.UID_BYTES, Utils.UID_BYTES);
+        }
+        return result;
+    }
+
+    /** Returns the bucket file for MESSAGE. */
+    private File bucket(String message) {
+        String hash = Utils.sha1(message);
+        return Utils.join(_dir, hash.substring(0, ObjectStore.FANOUT_DIGITS),
+                          hash.substring(ObjectStore.FANOUT_DIGITS));
+    }
+
+    /** Deletes FILE and, if it is a directory, everything under it. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** The directory holding the index. */
+    private final File _dir;
+
+}
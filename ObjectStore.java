@@ -0,0 +1,345 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/** A directory of objects named by their SHA-1 ids.  As in Git, loose
+ *  objects are fanned out into subdirectories named by the first two
+ *  hexadecimal digits of their ids, so that no directory grows too
+ *  large; the loose object with id ID is stored in
+ *  DIR/ID[0..2]/ID[2..40].  Objects may also be consolidated into
+ *  packs in DIR/pack, which are searched before loose objects.  Blobs
+ *  rebuilt from deltas in packs are kept in a small LRU cache.
+ *  @author Elizaveta Belkina
+ */
+class ObjectStore {
+
+    /** Number of id digits naming a fan-out subdirectory. */
+    static final int FANOUT_DIGITS = 2;
+
+    /** Total size in bytes of the blob contents kept in the cache. */
+    static final long CONTENTS_CACHE_SIZE = 32 << 20;
+
+    /** An object store rooted at DIR. */
+    ObjectStore(File dir) {
+        _dir = dir;
+        _contents = new LruCache<>(CONTENTS_CACHE_SIZE, b -> b.length);
+    }
+
+    /** Returns the directory holding this store. */
+    File dir() {
+        return _dir;
+    }
+
+    /** Returns the file that holds, or would hold, loose object ID. */
+    File file(String id) {
+        return Utils.join(_dir, id.substring(0, FANOUT_DIGITS),
+                          id.substring(FANOUT_DIGITS));
+    }
+
+    /** Returns true iff object ID is in this store. */
+    boolean contains(String id) {
+        if (id.length() != Utils.UID_LENGTH) {
+            return false;
+        }
+        for (Pack pack : packs()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return file(id).isFile();
+    }
+
+    /** Returns the ids of all objects in this store in lexicographic
+     *  order. */
+    List<String> ids() {
+        return idsWithPrefix("");
+    }
+
+    /** Returns the ids in this store starting with PREFIX, in
+     *  lexicographic order.  Only one subdirectory is read if PREFIX
+     *  names one. */
+    List<String> idsWithPrefix(String prefix) {
+        TreeSet<String> result = new TreeSet<>();
+        for (Pack pack : packs()) {
+            for (String id : pack.ids()) {
+                if (id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+        }
+        result.addAll(looseIdsWithPrefix(prefix));
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the ids of all objects in this store in no particular
+     *  order.  Cheaper than ids(), since the directories are streamed
+     *  rather than listed and sorted. */
+    List<String> unorderedIds() {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        for (Pack pack : packs()) {
+            result.addAll(pack.ids());
+        }
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(
+                 _dir.toPath(), path -> Files.isDirectory(path)
+                 && path.getFileName().toString().length()
+                    == FANOUT_DIGITS)) {
+            for (Path shard : shards) {
+                String prefix = shard.getFileName().toString();
+                try (DirectoryStream<Path> names =
+                     Files.newDirectoryStream(shard)) {
+                    for (Path name : names) {
+                        result.add(prefix + name.getFileName());
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the ids of the loose objects starting with PREFIX, in
+     *  lexicographic order. */
+    private List<String> looseIdsWithPrefix(String prefix) {
+        ArrayList<String> result = new ArrayList<>();
+        String[] shards;
+        if (prefix.length() >= FANOUT_DIGITS) {
+            shards = new String[] { prefix.substring(0, FANOUT_DIGITS) };
+        } else {
+            shards = _dir.list((dir, name) -> name.length() == FANOUT_DIGITS
+                               && name.startsWith(prefix));
+            if (shards == null) {
+                return result;
+            }
+            Arrays.sort(shards);
+        }
+        for (String shard : shards) {
+            String[] names = new File(_dir, shard).list();
+            if (names == null) {
+                continue;
+            }
+            Arrays.sort(names);
+            for (String name : names) {
+                String id = shard + name;
+                if (id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns a buffered stream of the stored bytes of object ID, which
+     *  supports marks.  Throws IllegalArgumentException in case of
+     *  problems. */
+    InputStream open(String id) {
+        byte[] cached = _contents.get(id);
+        if (cached != null) {
+            return new ByteArrayInputStream(Blob.rawStored(cached));
+        }
+        for (Pack pack : packs()) {
+            byte[] stored = pack.read(id);
+            if (stored != null) {
+                return new ByteArrayInputStream(stored);
+            }
+        }
+        try {
+            return new BufferedInputStream(
+                Files.newInputStream(file(id).toPath()), Utils.BUFFER_SIZE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the uncompressed contents of blob ID, from the cache if
+     *  possible. */
+    byte[] contents(String id) {
+        byte[] result = _contents.get(id);
+        if (result == null) {
+            result = Blob.readContents(open(id));
+            remember(id, result);
+        }
+        return result;
+    }
+
+    /** Caches CONTENTS as the uncompressed contents of blob ID. */
+    void remember(String id, byte[] contents) {
+        _contents.put(id, contents);
+    }
+
+    /** Returns the length of the chain of deltas that rebuilds object
+     *  ID, which is 0 unless it is packed as a delta. */
+    int depth(String id) {
+        for (Pack pack : packs()) {
+            int depth = pack.depth(id);
+            if (depth >= 0) {
+                return depth;
+            }
+        }
+        return 0;
+    }
+
+    /** Stores the encoded object BYTES under ID, as part of the open
+     *  transaction if there is one.  Replaces a loose object already
+     *  stored under ID, as upgrade does when it rewrites a commit in
+     *  the current format under its old id. */
+    void write(String id, byte[] bytes) {
+        File pending = newTempFile();
+        Utils.writeContents(pending, bytes);
+        File file = file(id);
+        file.getParentFile().mkdir();
+        Transaction.moveObject(pending, file);
+    }
+
+    /** Returns a new, empty temporary file in this store's directory, to
+     *  be filled and then passed to keep.  Creates the directory, which
+     *  repositories made before trees lack for their tree store. */
+    File newTempFile() {
+        _dir.mkdirs();
+        try {
+            return File.createTempFile("object", ".tmp", _dir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Moves the temporary file PENDING into this store as object ID,
+     *  as part of the open transaction if there is one, unless ID is
+     *  already stored, loose or packed, in which case PENDING is
+     *  deleted. */
+    void keep(File pending, String id) {
+        if (contains(id)) {
+            pending.delete();
+            return;
+        }
+        File file = file(id);
+        file.getParentFile().mkdir();
+        Transaction.moveObject(pending, file);
+    }
+
+    /** Moves every object stored directly in this store's directory,
+     *  as a file named by its id followed by SUFFIX, into its fan-out
+     *  subdirectory.  Used to upgrade repositories made before
+     *  objects were fanned out. */
+    void fanOut(String suffix) {
+        String[] names = _dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File flat = new File(_dir, name);
+            if (name.length() == Utils.UID_LENGTH + suffix.length()
+                && name.endsWith(suffix) && flat.isFile()) {
+                String id = name.substring(0, Utils.UID_LENGTH);
+                File file = file(id);
+                file.getParentFile().mkdir();
+                if (!flat.renameTo(file)) {
+                    throw Utils.error("Could not move %s.", flat);
+                }
+            }
+        }
+    }
+
+    /** Moves every loose object into new packs, which Pack.write
+     *  flushes to the disk as the durability level requires, and only
+     *  then deletes the loose objects.  Objects too large for a pack
+     *  stay loose.  CANDIDATES maps blobs to similar blobs to be tried
+     *  as delta bases, which are used as long as no blob needs more
+     *  than Pack.MAX_DELTA_DEPTH deltas applied to be rebuilt. */
+    void pack(Map<String, String> candidates) {
+        List<String> loose = looseIdsWithPrefix("");
+        loose.removeIf(id -> file(id).length() >= Pack.MAX_PACK_SIZE);
+        if (loose.isEmpty()) {
+            return;
+        }
+        HashSet<String> batch = new HashSet<>(loose);
+        HashMap<String, String> bases = new HashMap<>();
+        HashMap<String, Integer> depths = new HashMap<>();
+        HashSet<String> planned = new HashSet<>();
+        for (String id : loose) {
+            ArrayDeque<String> chain = new ArrayDeque<>();
+            for (String blob = id; blob != null && !depths.containsKey(blob);
+                 blob = candidates.get(blob)) {
+                if (!batch.contains(blob)) {
+                    depths.put(blob, contains(blob) ? depth(blob) : -1);
+                    planned.add(blob);
+                    break;
+                }
+                depths.put(blob, 0);
+                chain.push(blob);
+            }
+            while (!chain.isEmpty()) {
+                String blob = chain.pop();
+                String base = candidates.get(blob);
+                if (base != null && planned.contains(base)
+                    && depths.get(base) >= 0
+                    && depths.get(base) < Pack.MAX_DELTA_DEPTH) {
+                    bases.put(blob, base);
+                    depths.put(blob, depths.get(base) + 1);
+                }
+                planned.add(blob);
+            }
+        }
+        for (File index : Pack.write(new File(_dir, PACK_DIR), this, loose,
+                                     bases, depths)) {
+            packs().add(new Pack(index, this));
+        }
+        for (String id : loose) {
+            File file = file(id);
+            file.delete();
+            file.getParentFile().delete();
+        }
+    }
+
+    /** Forgets the packs opened so far, so that they are listed again
+     *  when next used.  The cached contents stay valid, as an object
+     *  never changes under its id. */
+    synchronized void invalidate() {
+        _packs = null;
+    }
+
+    /** Returns the packs of this store, opening them on first use. */
+    private synchronized List<Pack> packs() {
+        if (_packs == null) {
+            _packs = new ArrayList<>();
+            File[] indexes = new File(_dir, PACK_DIR).listFiles(
+                (dir, name) -> name.endsWith(".idx"));
+            if (indexes != null) {
+                Arrays.sort(indexes);
+                for (File index : indexes) {
+                    _packs.add(new Pack(index, this));
+                }
+            }
+        }
+        return _packs;
+    }
+
+    /** Name of the subdirectory holding packs. */
+    static final String PACK_DIR = "pack";
+
+    /** The directory holding this store. */
+    private final File _dir;
+
+    /** The packs of this store, or null if not yet opened. */
+    private ArrayList<Pack> _packs;
+
+    /** Recently used or rebuilt blob contents. */
+    private final LruCache<String, byte[]> _contents;
+
+}
@@ -0,0 +1,384 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A packfile: many objects of an object store consolidated into one
+ *  file, with a separate index mapping their ids to their offsets.
+ *
+ *  The pack file (NAME.pack) holds PACK_MAGIC, VERSION and the number
+ *  of objects, followed by the objects, each a type byte and then
+ *  either the object's stored bytes (FULL) or, for blobs only, a
+ *  delta against another blob (DELTA): the base blob's id, the length
+ *  of the chain of deltas ending at this one, and the deflated delta
+ *  from the base's contents to this blob's contents.  The index file
+ *  (NAME.idx) holds IDX_MAGIC, VERSION and the number of objects,
+ *  followed by one ENTRY_SIZE entry per object, sorted by id: the id's
+ *  bytes, the offset of the object in the pack and the length of its
+ *  stored bytes.  Lookups are binary searches over the memory-mapped
+ *  index.
+ *  @author Elizaveta Belkina
+ */
+class Pack {
+
+    /** Magic number starting a pack file ("GPAK"). */
+    static final int PACK_MAGIC = 0x4750414b;
+
+    /** Magic number starting an index file ("GIDX"). */
+    static final int IDX_MAGIC = 0x47494458;
+
+    /** Current format version. */
+    static final int VERSION = 1;
+
+    /** Size of the header of both files in bytes. */
+    static final int HEADER_SIZE = 12;
+
+    /** Size of one index entry in bytes. */
+    static final int ENTRY_SIZE = Utils.UID_BYTES + 12;
+
+    /** Type of an object stored whole. */
+    static final byte FULL = 1;
+
+    /** Type of a blob stored as a delta against another blob. */
+    static final byte DELTA = 2;
+
+    /** Longest chain of deltas that must be applied to rebuild a blob. */
+    static final int MAX_DELTA_DEPTH = 16;
+
+    /** Largest pack written, so that every offset fits a mapping. */
+    static final long MAX_PACK_SIZE = 1L << 30;
+
+    /** The pack of object store STORE whose index is the file INDEX and
+     *  whose objects are in the file of the same name ending in
+     *  ".pack". */
+    Pack(File index, ObjectStore store) {
+        _store = store;
+        String name = index.getName();
+        _index = map(index, IDX_MAGIC);
+        _pack = map(new File(index.getParentFile(),
+                             name.substring(0, name.length() - 4) + ".pack"),
+                    PACK_MAGIC);
+        _size = _index.getInt(8);
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return _size;
+    }
+
+    /** Returns true iff object ID is in this pack. */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Returns the stored bytes of object ID, or null if it is not in
+     *  this pack. */
+    byte[] read(String id) {
+        int entry = find(id);
+        if (entry < 0) {
+            return null;
+        }
+        int offset = entryOffset(entry) + Utils.UID_BYTES;
+        int position = (int) _index.getLong(offset);
+        int length = _index.getInt(offset + 8);
+        byte type = _pack.get(position);
+        if (type == FULL) {
+            byte[] result = new byte[length];
+            _pack.get(position + 1, result);
+            return result;
+        } else if (type == DELTA) {
+            byte[] base = new byte[Utils.UID_BYTES];
+            _pack.get(position + 1, base);
+            byte[] delta = new byte[length - Utils.UID_BYTES - 1];
+            _pack.get(position + Utils.UID_BYTES + 2, delta);
+            byte[] contents =
+                Delta.apply(_store.contents(Utils.uidString(base, 0)),
+                            inflate(delta));
+            _store.remember(id, contents);
+            return Blob.rawStored(contents);
+        }
+        throw Utils.error("Unknown object type %d in pack.", type);
+    }
+
+    /** Returns the length of the chain of deltas that rebuilds object
+     *  ID: 0 if it is stored whole, and -1 if it is not in this
+     *  pack. */
+    int depth(String id) {
+        int entry = find(id);
+        if (entry < 0) {
+            return -1;
+        }
+        int position = (int) _index.getLong(entryOffset(entry)
+                                            + Utils.UID_BYTES);
+        if (_pack.get(position) == DELTA) {
+            return _pack.get(position + Utils.UID_BYTES + 1) & 0xff;
+        }
+        return 0;
+    }
+
+    /** Returns the ids of the objects in this pack in lexicographic
+     *  order. */
+    List<String> ids() {
+        ArrayList<String> result = new ArrayList<>(_size);
+        byte[] id = new byte[Utils.UID_BYTES];
+        for (int entry = 0; entry < _size; entry += 1) {
+            _index.get(entryOffset(entry), id);
+            result.add(Utils.uidString(id, 0));
+        }
+        return result;
+    }
+
+    /** Returns the index of the entry for ID, or -1 if there is none. */
+    private int find(String id) {
+        if (id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] target = Utils.uidBytes(id);
+        int lo = 0, hi = _size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(entryOffset(mid), target);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the id at OFFSET in the index with TARGET as unsigned
+     *  bytes. */
+    private int compare(int offset, byte[] target) {
+        for (int i = 0; i < Utils.UID_BYTES; i += 1) {
+            int cmp = Integer.compare(_index.get(offset + i) & 0xff,
+                                      target[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the offset in the index of entry ENTRY. */
+    private static int entryOffset(int entry) {
+        return HEADER_SIZE + entry * ENTRY_SIZE;
+    }
+
+    /** Returns FILE mapped into memory, after checking that it starts
+     *  with MAGIC and VERSION. */
+    private static MappedByteBuffer map(File file, int magic) {
+        MappedByteBuffer result;
+        try (FileChannel channel =
+             FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            result = channel.map(FileChannel.MapMode.READ_ONLY,
+                                 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (result.capacity() < HEADER_SIZE || result.getInt(0) != magic
+            || result.getInt(4) != VERSION) {
+            throw Utils.error("Corrupt pack file %s.", file);
+        }
+        return result;
+    }
+
+    /** Writes the objects with the given IDS, sorted and distinct, from
+     *  STORE into new packs in DIR, each no larger than MAX_PACK_SIZE,
+     *  and returns their index files.  No object may be larger than
+     *  MAX_PACK_SIZE.  Each blob that BASES maps to another is stored as
+     *  a delta against it, with the chain length given by DEPTHS, if
+     *  that is smaller than storing it whole.  Each pack and index is
+     *  written under a unique temporary name and then renamed, the
+     *  index last, so that a pack is only visible once complete and
+     *  concurrent packs do not overwrite each other.  Unless the
+     *  durability level is NONE, both are flushed before they are
+     *  renamed, and DIR after each pack if it is EACH and after the
+     *  last otherwise, so that the packs are on the disk before the
+     *  caller deletes the loose objects. */
+    static List<File> write(File dir, ObjectStore store, List<String> ids,
+                            Map<String, String> bases,
+                            Map<String, Integer> depths) {
+        ArrayList<File> result = new ArrayList<>();
+        Transaction.Durability durability = Transaction.durability();
+        dir.mkdirs();
+        int start = 0;
+        while (start < ids.size()) {
+            ArrayList<String> packed = new ArrayList<>();
+            ByteBuffer entries = ByteBuffer.allocate(16 * ENTRY_SIZE);
+            File pending = tempFile(dir, "pack");
+            long position = HEADER_SIZE;
+            try (OutputStream out = new BufferedOutputStream(
+                     Files.newOutputStream(pending.toPath()),
+                     Utils.BUFFER_SIZE)) {
+                out.write(header(PACK_MAGIC, 0).array());
+                while (start < ids.size()) {
+                    String id = ids.get(start);
+                    byte[] stored;
+                    try (InputStream in = store.open(id)) {
+                        stored = in.readAllBytes();
+                    }
+                    String base = bases.get(id);
+                    if (base != null) {
+                        byte[] delta = deflate(Delta.create(
+                            store.contents(base),
+                            Blob.readContents(new ByteArrayInputStream(
+                                stored))));
+                        if (Utils.UID_BYTES + 1 + delta.length
+                            < stored.length) {
+                            ByteBuffer entry = ByteBuffer.allocate(
+                                Utils.UID_BYTES + 1 + delta.length);
+                            entry.put(Utils.uidBytes(base));
+                            entry.put((byte) (int) depths.get(id));
+                            entry.put(delta);
+                            stored = entry.array();
+                        } else {
+                            base = null;
+                        }
+                    }
+                    if (!packed.isEmpty()
+                        && position + 1 + stored.length > MAX_PACK_SIZE) {
+                        break;
+                    }
+                    out.write(base == null ? FULL : DELTA);
+                    out.write(stored);
+                    if (entries.remaining() < ENTRY_SIZE) {
+                        ByteBuffer bigger =
+                            ByteBuffer.allocate(2 * entries.capacity());
+                        entries.flip();
+                        bigger.put(entries);
+                        entries = bigger;
+                    }
+                    entries.put(Utils.uidBytes(id)).putLong(position)
+                        .putInt(stored.length);
+                    position += 1 + stored.length;
+                    packed.add(id);
+                    start += 1;
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            try (FileChannel channel =
+                 FileChannel.open(pending.toPath(),
+                                  StandardOpenOption.WRITE)) {
+                channel.write(header(PACK_MAGIC, packed.size()), 0);
+                Transaction.flush(channel);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+
+            String name = "pack-" + Utils.sha1(String.join("", packed));
+            File pack = new File(dir, name + ".pack");
+            File index = new File(dir, name + ".idx");
+            File pendingIndex = tempFile(dir, "idx");
+            entries.flip();
+            byte[] indexBytes = new byte[HEADER_SIZE + entries.remaining()];
+            header(IDX_MAGIC, packed.size()).get(indexBytes, 0, HEADER_SIZE);
+            entries.get(indexBytes, HEADER_SIZE, indexBytes.length
+                        - HEADER_SIZE);
+            Utils.writeContents(pendingIndex, indexBytes);
+            Transaction.flush(pendingIndex);
+            if (!pending.renameTo(pack) || !pendingIndex.renameTo(index)) {
+                pending.delete();
+                pendingIndex.delete();
+                throw Utils.error("Could not write pack %s.", name);
+            }
+            if (durability == Transaction.Durability.EACH) {
+                Transaction.flush(dir);
+            }
+            result.add(index);
+        }
+        if (durability == Transaction.Durability.END) {
+            Transaction.flush(dir);
+        }
+        return result;
+    }
+
+    /** Returns a new, empty temporary file in DIR whose name starts
+     *  with PREFIX. */
+    private static File tempFile(File dir, String prefix) {
+        try {
+            return File.createTempFile(prefix, ".tmp", dir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns DATA, deflate-compressed. */
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[Utils.BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Returns the decompressed form of the deflated DATA. */
+    private static byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[Utils.BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    throw Utils.error("Truncated delta in pack.");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException excp) {
+            throw Utils.error("Corrupt delta in pack.");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Returns a file header with MAGIC, VERSION and COUNT, ready to be
+     *  written. */
+    private static ByteBuffer header(int magic, int count) {
+        ByteBuffer result = ByteBuffer.allocate(HEADER_SIZE);
+        result.putInt(magic).putInt(VERSION).putInt(count).flip();
+        return result;
+    }
+
+    /** The object store this pack belongs to. */
+    private final ObjectStore _store;
+
+    /** The memory-mapped index. */
+    private final MappedByteBuffer _index;
+
+    /** The memory-mapped pack. */
+    private final MappedByteBuffer _pack;
+
+    /** Number of objects. */
+    private final int _size;
+
+}
@@ -0,0 +1,92 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/** A fork-join task applying a function, typically one that reads and
+ *  deserializes an object, to each of a list of ids in parallel.  The
+ *  list is split in halves until the pieces are small, and the results
+ *  are joined back in the order of the ids, so the output does not
+ *  depend on the number of threads.
+ *  @param <T> the type of the results.
+ *  @author Elizaveta Belkina
+ */
+class ParallelScan<T> extends RecursiveTask<List<T>> {
+
+    /** Serialization version. */
+    private static final long serialVersionUID = 1L;
+
+    /** Largest number of ids handled by a task without splitting it. */
+    static final int THRESHOLD = 128;
+
+    /** Name of the system property giving the number of threads. */
+    static final String THREADS_PROPERTY = "gitlet.threads";
+
+    /** Returns the results of applying READER to each of IDS, in order,
+     *  computed by threads() threads. */
+    static <T> List<T> map(List<String> ids, Function<String, T> reader) {
+        return map(ids, reader, threads());
+    }
+
+    /** Returns the results of applying READER to each of IDS, in order,
+     *  computed by THREADS threads. */
+    static <T> List<T> map(List<String> ids, Function<String, T> reader,
+                           int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new ParallelScan<>(ids, 0, ids.size(),
+                                                  reader));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Returns the number of threads to scan with: the value of the
+     *  system property THREADS_PROPERTY if set, and otherwise the
+     *  number of available processors. */
+    static int threads() {
+        return Math.max(1, Integer.getInteger(
+            THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** A task applying READER to IDS[LO..HI). */
+    private ParallelScan(List<String> ids, int lo, int hi,
+                         Function<String, T> reader) {
+        _ids = ids;
+        _lo = lo;
+        _hi = hi;
+        _reader = reader;
+    }
+
+    @Override
+    protected List<T> compute() {
+        if (_hi - _lo <= THRESHOLD) {
+            ArrayList<T> result = new ArrayList<>(_hi - _lo);
+            for (String id : _ids.subList(_lo, _hi)) {
+                result.add(_reader.apply(id));
+            }
+            return result;
+        }
+        int mid = (_lo + _hi) >>> 1;
+        ParallelScan<T> left = new ParallelScan<>(_ids, _lo, mid, _reader);
+        left.fork();
+        List<T> right =
+            new ParallelScan<>(_ids, mid, _hi, _reader).compute();
+        List<T> result = left.join();
+        result.addAll(right);
+        return result;
+    }
+
+    /** All the ids being scanned. */
+    private final List<String> _ids;
+
+    /** The range of _ids handled by this task. */
+    private final int _lo, _hi;
+
+    /** Gives the result for each id. */
+    private final Function<String, T> _reader;
+
+}
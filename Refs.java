@@ -0,0 +1,143 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The branches of a repository, each naming its head commit, kept in
+ *  a namespace of their own under DIR.  As in Git, most branches sit in
+ *  the file DIR/PACKED, one line "ID NAME" per branch in order of name,
+ *  and those updated since it was last written are loose files
+ *  DIR/HEADS/NAME holding their ids, which override the packed lines.
+ *  Looking up a branch reads one file, and listing them reads the
+ *  packed file and the few loose ones.  The loose branches are packed
+ *  once there are MAX_LOOSE of them and another would be added.
+ *  @author Elizaveta Belkina
+ */
+class Refs {
+
+    /** Name of the file of packed branches. */
+    static final String PACKED = "packed-refs";
+
+    /** Name of the directory of loose branches. */
+    static final String HEADS = "heads";
+
+    /** Number of loose branches beyond which they are packed. */
+    static final int MAX_LOOSE = 64;
+
+    /** Branches stored under DIR. */
+    Refs(File dir) {
+        _packed = new File(dir, PACKED);
+        _heads = new File(dir, HEADS);
+    }
+
+    /** Returns true iff the packed file exists, as it does in every
+     *  repository made or upgraded since branches moved here. */
+    boolean exists() {
+        return _packed.isFile();
+    }
+
+    /** Returns the id of the head commit of branch NAME, or null if
+     *  there is no such branch. */
+    String get(String name) {
+        File loose = new File(_heads, name);
+        if (loose.isFile()) {
+            return Utils.readContentsAsString(loose);
+        }
+        return readPacked().get(name);
+    }
+
+    /** Returns the ids of the head commits of all branches, by name. */
+    TreeMap<String, String> all() {
+        TreeMap<String, String> result = readPacked();
+        for (String name : looseNames()) {
+            result.put(name,
+                    Utils.readContentsAsString(new File(_heads, name)));
+        }
+        return result;
+    }
+
+    /** Makes TRANSACTION point branch NAME at the commit ID when it
+     *  commits, as a loose branch.  Packs the loose branches first if
+     *  this would make more than MAX_LOOSE of them. */
+    void set(Transaction transaction, String name, String id) {
+        File loose = new File(_heads, name);
+        if (!loose.isFile() && looseNames().length >= MAX_LOOSE) {
+            pack();
+        }
+        _heads.mkdirs();
+        transaction.setRef(loose, id);
+    }
+
+    /** Removes branch NAME, which must exist, packing the remaining
+     *  branches. */
+    void delete(String name) {
+        TreeMap<String, String> branches = all();
+        branches.remove(name);
+        write(branches, name);
+    }
+
+    /** Packs all branches. */
+    void pack() {
+        write(all(), null);
+    }
+
+    /** Packs BRANCHES, which must include every loose branch but
+     *  REMOVED, if not null, and deletes the loose files. */
+    void write(Map<String, String> branches, String removed) {
+        String[] loose = looseNames();
+        StringBuilder packed = new StringBuilder();
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            packed.append(branch.getValue()).append(' ')
+                .append(branch.getKey()).append('\n');
+        }
+        _heads.mkdirs();
+        Transaction.replace(_packed,
+                packed.toString().getBytes(StandardCharsets.UTF_8));
+        if (removed != null) {
+            new File(_heads, removed).delete();
+        }
+        for (String name : loose) {
+            new File(_heads, name).delete();
+        }
+    }
+
+    /** Returns the packed branches, by name. */
+    private TreeMap<String, String> readPacked() {
+        TreeMap<String, String> result = new TreeMap<>();
+        if (!_packed.isFile()) {
+            return result;
+        }
+        String packed = Utils.readContentsAsString(_packed);
+        int start = 0;
+        while (start < packed.length()) {
+            int end = packed.indexOf('\n', start);
+            if (end < 0) {
+                end = packed.length();
+            }
+            int space = packed.indexOf(' ', start);
+            if (space > start && space < end) {
+                result.put(packed.substring(space + 1, end),
+                        packed.substring(start, space));
+            }
+            start = end + 1;
+        }
+        return result;
+    }
+
+    /** Returns the names of the loose branches, leaving out temporary
+     *  files left by a crash while one was being written. */
+    private String[] looseNames() {
+        String[] result = _heads.list((dir, name) -> !name.endsWith(".tmp")
+                && new File(dir, name).isFile());
+        return result == null ? new String[0] : result;
+    }
+
+    /** The file of packed branches. */
+    private final File _packed;
+
+    /** The directory of loose branches. */
+    private final File _heads;
+
+}
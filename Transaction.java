@@ -0,0 +1,225 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/** The updates one command makes to the repository, applied so that a
+ *  crash cannot leave a ref naming a missing or torn object.  Each new
+ *  object is written to a temporary file and renamed into place, and
+ *  the refs are swapped only once all the objects are written, each by
+ *  renaming a complete temporary file over it.  How much is flushed to
+ *  the disk along the way, and so what survives a crash of the whole
+ *  machine rather than of Gitlet, is set by the durability level.
+ *  @author Elizaveta Belkina
+ */
+class Transaction {
+
+    /** How much a transaction flushes to the disk. */
+    enum Durability {
+        /** Never flush.  Fastest, for batch jobs that can be rerun: a
+         *  crash of the machine may lose recent updates, or leave refs
+         *  naming objects that never reached the disk. */
+        NONE,
+        /** Flush the new objects together just before the refs are
+         *  swapped, and the refs before they are renamed into place. */
+        END,
+        /** Flush every file and directory as soon as it is written. */
+        EACH
+    }
+
+    /** Name of the system property giving the durability level, one of
+     *  "none", "end" and "each". */
+    static final String DURABILITY_PROPERTY = "gitlet.durability";
+
+    /** Durability level when DURABILITY_PROPERTY is not set. */
+    static final Durability DEFAULT_DURABILITY = Durability.END;
+
+    /** Returns the durability level set by DURABILITY_PROPERTY, or
+     *  DEFAULT_DURABILITY if it is not set. */
+    static Durability durability() {
+        String level = System.getProperty(DURABILITY_PROPERTY);
+        if (level == null) {
+            return DEFAULT_DURABILITY;
+        }
+        try {
+            return Durability.valueOf(level.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException excp) {
+            throw Utils.error("Unknown durability level %s.", level);
+        }
+    }
+
+    /** A transaction flushing as DURABILITY requires. */
+    private Transaction(Durability durability) {
+        _durability = durability;
+        _objects = new ArrayList<>();
+        _refs = new LinkedHashMap<>();
+    }
+
+    /** Starts a transaction at the current durability level, to which
+     *  the objects stored until it commits belong, abandoning any
+     *  transaction that was started but never committed. */
+    static Transaction begin() {
+        _current = new Transaction(durability());
+        return _current;
+    }
+
+    /** Moves PENDING, a complete temporary file, to FILE, replacing it
+     *  if it exists, flushing as the open transaction requires or,
+     *  outside a transaction, as if it were the only object of one.
+     *  Throws a GitletException, having deleted PENDING, if it cannot
+     *  be moved, so that no ref is set to a missing object. */
+    static void moveObject(File pending, File file) {
+        Transaction transaction = _current;
+        Durability durability =
+            transaction == null ? durability() : transaction._durability;
+        if (durability == Durability.EACH) {
+            force(pending);
+        }
+        if (!pending.renameTo(file)) {
+            pending.delete();
+            throw Utils.error("Could not write object %s.", file);
+        }
+        if (durability == Durability.EACH) {
+            forceDirs(file);
+        } else if (durability == Durability.END) {
+            if (transaction == null) {
+                force(file);
+                forceDirs(file);
+            } else {
+                synchronized (transaction) {
+                    transaction._objects.add(file);
+                }
+            }
+        }
+    }
+
+    /** Sets the ref REF to CONTENTS when this transaction commits.  Refs
+     *  are swapped in the order they were set. */
+    void setRef(File ref, String contents) {
+        _refs.put(ref, contents);
+    }
+
+    /** Commits this transaction: flushes the objects stored since it
+     *  began if the durability level is END, and then swaps the refs. */
+    void commit() {
+        TreeSet<File> dirs = new TreeSet<>();
+        if (_durability == Durability.END) {
+            for (File object : _objects) {
+                force(object);
+                dirs.add(object.getParentFile());
+                dirs.add(object.getParentFile().getParentFile());
+            }
+            for (File dir : dirs) {
+                force(dir);
+            }
+            dirs.clear();
+        }
+        for (Map.Entry<File, String> ref : _refs.entrySet()) {
+            replace(ref.getKey(),
+                    ref.getValue().getBytes(StandardCharsets.UTF_8),
+                    _durability);
+            dirs.add(ref.getKey().getParentFile());
+        }
+        if (_durability == Durability.END) {
+            for (File dir : dirs) {
+                force(dir);
+            }
+        }
+        if (_current == this) {
+            _current = null;
+        }
+    }
+
+    /** Abandons the open transaction, if any.  Its objects stay stored
+     *  but are not flushed, and its refs are not set. */
+    static void abort() {
+        _current = null;
+    }
+
+    /** Replaces the contents of FILE with CONTENTS by renaming a
+     *  temporary file over it, flushing as durability() requires. */
+    static void replace(File file, byte[] contents) {
+        Durability durability = durability();
+        replace(file, contents, durability);
+        if (durability == Durability.END) {
+            force(file.getParentFile());
+        }
+    }
+
+    /** Replaces the contents of FILE with CONTENTS by renaming a
+     *  temporary file over it.  Flushes the temporary file first unless
+     *  DURABILITY is NONE, and the directory afterwards if it is
+     *  EACH. */
+    private static void replace(File file, byte[] contents,
+                                Durability durability) {
+        File pending = new File(file.getPath() + ".tmp");
+        Utils.writeContents(pending, contents);
+        if (durability != Durability.NONE) {
+            force(pending);
+        }
+        if (!pending.renameTo(file)) {
+            throw Utils.error("Could not write %s.", file);
+        }
+        if (durability == Durability.EACH) {
+            force(file.getParentFile());
+        }
+    }
+
+    /** Flushes what was written through CHANNEL unless the durability
+     *  level is NONE. */
+    static void flush(FileChannel channel) throws IOException {
+        if (durability() != Durability.NONE) {
+            channel.force(false);
+        }
+    }
+
+    /** Flushes the contents and metadata of FILE, which may be a
+     *  directory, unless the durability level is NONE. */
+    static void flush(File file) {
+        if (durability() != Durability.NONE) {
+            force(file);
+        }
+    }
+
+    /** Flushes the directory holding the object FILE and the one above
+     *  it, where the first may just have been created. */
+    private static void forceDirs(File file) {
+        force(file.getParentFile());
+        force(file.getParentFile().getParentFile());
+    }
+
+    /** Flushes the contents and metadata of FILE, which may be a
+     *  directory, to the disk.  Platforms that cannot open directories
+     *  make flushing them a no-op. */
+    private static void force(File file) {
+        try (FileChannel channel =
+             FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** The transaction open now, if any. */
+    private static Transaction _current;
+
+    /** How much this transaction flushes. */
+    private final Durability _durability;
+
+    /** The objects stored since this began, to flush when it commits. */
+    private final ArrayList<File> _objects;
+
+    /** The new contents of the refs to set when this commits. */
+    private final LinkedHashMap<File, String> _refs;
+
+}
@@ -0,0 +1,282 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/** A directory of a commit: the blobs of its files and the ids of the
+ *  trees of its subdirectories, by name.  Like every object, a tree is
+ *  stored under the SHA-1 of its stored form, so a directory that does
+ *  not change between commits is stored once and shared, and two trees
+ *  with the same id need not be compared.  Trees written before the
+ *  binary format FORMAT were serialized, and are still read; upgrade
+ *  rewrites them in the binary format under their old ids.  Paths of
+ *  files in
+ *  subdirectories are the names of the directories and the file joined
+ *  with "/".
+ *  @author Elizaveta Belkina
+ */
+class Tree implements Serializable {
+
+    /** Serialization version.  Only trees stored before FORMAT was
+     *  introduced are serialized with Java serialization. */
+    private static final long serialVersionUID = 1L;
+
+    /** Version of the binary format of trees.  A tree is stored as this
+     *  byte, then its blobs and then its subtrees, each as a map from
+     *  names to ids. */
+    static final int FORMAT = 1;
+
+    /** Separator of the names in a path. */
+    static final char SEPARATOR = '/';
+
+    /** An empty tree. */
+    Tree() {
+        _blobs = new TreeMap<>();
+        _trees = new TreeMap<>();
+    }
+
+    /** Returns the blobs of the files in this directory, by name. */
+    TreeMap<String, String> getBlobs() {
+        return _blobs;
+    }
+
+    /** Returns the trees of the subdirectories, by name. */
+    TreeMap<String, String> getTrees() {
+        return _trees;
+    }
+
+    /** Returns true iff this directory has no files or
+     *  subdirectories. */
+    boolean isEmpty() {
+        return _blobs.isEmpty() && _trees.isEmpty();
+    }
+
+    /** Returns the tree ID of STORE. */
+    static Tree read(String id, ObjectStore store) {
+        return read(store.open(id));
+    }
+
+    /** Returns the tree read from STORED, in the binary format or, if it
+     *  was stored before that existed, serialized.  STORED must support
+     *  marks and is closed. */
+    static Tree read(InputStream stored) {
+        if (Codec.isJavaSerialized(stored)) {
+            return Utils.readObject(stored, Tree.class);
+        }
+        try (InputStream in = stored) {
+            return decode(in.readAllBytes());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the tree stored in the binary format as BYTES. */
+    static Tree decode(byte[] bytes) {
+        try (DataInputStream in = Codec.input(bytes)) {
+            Codec.checkVersion(in, FORMAT, "tree");
+            Tree result = new Tree();
+            result._blobs.putAll(Codec.readIds(in));
+            result._trees.putAll(Codec.readIds(in));
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns this tree in the binary format FORMAT. */
+    byte[] encode() {
+        return Codec.encode(out -> {
+            out.writeByte(FORMAT);
+            Codec.writeIds(out, _blobs);
+            Codec.writeIds(out, _trees);
+        });
+    }
+
+    /** Stores TREE in STORE, unless it is stored already, and returns
+     *  its id. */
+    static String write(Tree tree, ObjectStore store) {
+        byte[] bytes = tree.encode();
+        String id = Utils.sha1(bytes);
+        if (!store.contains(id)) {
+            store.write(id, bytes);
+        }
+        return id;
+    }
+
+    /** Rewrites the tree ID of STORE in the binary format, under the
+     *  same id, if it is serialized.  Returns true iff it was. */
+    static boolean upgrade(String id, ObjectStore store) {
+        try (InputStream stored = store.open(id)) {
+            if (!Codec.isJavaSerialized(stored)) {
+                return false;
+            }
+            store.write(id, read(stored).encode());
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores the trees holding the files in FILES, which maps paths to
+     *  blobs, in STORE, and returns the id of the root tree.  Trees
+     *  already stored are not written again. */
+    static String write(NavigableMap<String, String> files,
+                        ObjectStore store) {
+        return update(null, files, store);
+    }
+
+    /** Returns the id of the root tree made from the one with id ROOT,
+     *  or an empty tree if ROOT is null, by applying CHANGES, which maps
+     *  paths to their new blobs, or to null for files to remove.  Only
+     *  the trees of the directories on the changed paths are read and
+     *  written to STORE; the others are shared. */
+    static String update(String root, NavigableMap<String, String> changes,
+                         ObjectStore store) {
+        Tree tree = update(root, changes, 0, store);
+        return write(tree, store);
+    }
+
+    /** Returns the tree made from the one with id ROOT, or an empty tree
+     *  if ROOT is null, by applying CHANGES, whose paths all start with
+     *  the same OFFSET characters naming that tree's directory.  The
+     *  changed subtrees are written to STORE; the result is not. */
+    private static Tree update(String root,
+                               NavigableMap<String, String> changes,
+                               int offset, ObjectStore store) {
+        Tree tree = root == null ? new Tree() : read(root, store);
+        String path = changes.isEmpty() ? null : changes.firstKey();
+        while (path != null) {
+            int slash = path.indexOf(SEPARATOR, offset);
+            if (slash < 0) {
+                String name = path.substring(offset);
+                String blob = changes.get(path);
+                if (blob == null) {
+                    tree._blobs.remove(name);
+                } else {
+                    tree._blobs.put(name, blob);
+                }
+                path = changes.higherKey(path);
+            } else {
+                String name = path.substring(offset, slash);
+                String dir = path.substring(0, slash);
+                String end = dir + (char) (SEPARATOR + 1);
+                Tree subtree = update(tree._trees.get(name),
+                                      changes.subMap(dir + SEPARATOR, true,
+                                                     end, false),
+                                      slash + 1, store);
+                if (subtree.isEmpty()) {
+                    tree._trees.remove(name);
+                } else {
+                    tree._trees.put(name, write(subtree, store));
+                }
+                path = changes.ceilingKey(end);
+            }
+        }
+        return tree;
+    }
+
+    /** Adds the path and blob of every file under tree ROOT of STORE to
+     *  FILES. */
+    static void flatten(String root, ObjectStore store,
+                        Map<String, String> files) {
+        flatten(root, "", store, files);
+    }
+
+    /** Adds the files under tree ROOT of STORE to FILES, with their
+     *  paths starting with PREFIX. */
+    private static void flatten(String root, String prefix,
+                                ObjectStore store,
+                                Map<String, String> files) {
+        Tree tree = read(root, store);
+        for (Map.Entry<String, String> file : tree._blobs.entrySet()) {
+            files.put(prefix + file.getKey(), file.getValue());
+        }
+        for (Map.Entry<String, String> dir : tree._trees.entrySet()) {
+            flatten(dir.getValue(), prefix + dir.getKey() + SEPARATOR,
+                    store, files);
+        }
+    }
+
+    /** Returns the blob of the file at PATH under tree ROOT of STORE, or
+     *  null if there is none.  Reads only the trees on the path. */
+    static String blob(String root, String path, ObjectStore store) {
+        Tree tree = read(root, store);
+        int start = 0;
+        for (int slash = path.indexOf(SEPARATOR); slash >= 0;
+             slash = path.indexOf(SEPARATOR, start)) {
+            String subtree = tree._trees.get(path.substring(start, slash));
+            if (subtree == null) {
+                return null;
+            }
+            tree = read(subtree, store);
+            start = slash + 1;
+        }
+        return tree._blobs.get(path.substring(start));
+    }
+
+    /** Adds to FROMFILES and TOFILES the files of the trees FROM and TO
+     *  of STORE, either of which may be null for an empty tree, whose
+     *  paths are in only one of them or have different blobs.
+     *  Subtrees with the same id in both are skipped without being
+     *  read. */
+    static void diff(String from, String to, ObjectStore store,
+                     Map<String, String> fromFiles,
+                     Map<String, String> toFiles) {
+        diff(from, to, "", store, fromFiles, toFiles);
+    }
+
+    /** As for diff(FROM, TO, STORE, FROMFILES, TOFILES), with paths
+     *  starting with PREFIX. */
+    private static void diff(String from, String to, String prefix,
+                             ObjectStore store,
+                             Map<String, String> fromFiles,
+                             Map<String, String> toFiles) {
+        if (Objects.equals(from, to)) {
+            return;
+        }
+        if (from == null || to == null) {
+            flatten(from == null ? to : from, prefix, store,
+                    from == null ? toFiles : fromFiles);
+            return;
+        }
+        Tree fromTree = read(from, store), toTree = read(to, store);
+        for (Map.Entry<String, String> file : fromTree._blobs.entrySet()) {
+            String blob = toTree._blobs.get(file.getKey());
+            if (!file.getValue().equals(blob)) {
+                fromFiles.put(prefix + file.getKey(), file.getValue());
+                if (blob != null) {
+                    toFiles.put(prefix + file.getKey(), blob);
+                }
+            }
+        }
+        for (Map.Entry<String, String> file : toTree._blobs.entrySet()) {
+            if (!fromTree._blobs.containsKey(file.getKey())) {
+                toFiles.put(prefix + file.getKey(), file.getValue());
+            }
+        }
+        for (Map.Entry<String, String> dir : fromTree._trees.entrySet()) {
+            diff(dir.getValue(), toTree._trees.get(dir.getKey()),
+                 prefix + dir.getKey() + SEPARATOR, store,
+                 fromFiles, toFiles);
+        }
+        for (Map.Entry<String, String> dir : toTree._trees.entrySet()) {
+            if (!fromTree._trees.containsKey(dir.getKey())) {
+                diff(null, dir.getValue(), prefix + dir.getKey() + SEPARATOR,
+                     store, fromFiles, toFiles);
+            }
+        }
+    }
+
+    /** Blobs of the files in this directory, by name. */
+    private final TreeMap<String, String> _blobs;
+
+    /** Ids of the trees of the subdirectories, by name. */
+    private final TreeMap<String, String> _trees;
+
+}
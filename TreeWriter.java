@@ -0,0 +1,76 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Writes blobs to working files on a bounded pool of threads, so that
+ *  while some threads wait to write files, others are already reading
+ *  and inflating the next blobs.  Failures are collected rather than
+ *  stopping the other writes.
+ *  @author Elizaveta Belkina
+ */
+class TreeWriter {
+
+    /** Name of the system property giving the number of threads. */
+    static final String THREADS_PROPERTY = "gitlet.ioThreads";
+
+    /** Default number of threads, enough to keep several requests in
+     *  flight on a fast disk. */
+    static final int DEFAULT_THREADS = 8;
+
+    /** Returns the number of threads to write with: the value of the
+     *  system property THREADS_PROPERTY if set, and otherwise
+     *  DEFAULT_THREADS. */
+    static int threads() {
+        return Math.max(1, Integer.getInteger(THREADS_PROPERTY,
+                                              DEFAULT_THREADS));
+    }
+
+    /** Writes the contents of blob FILES.get(F), read from STORE, to each
+     *  file F of FILES, creating it and its directory or overwriting
+     *  it, and puts the stat data of F, taken just after it was
+     *  written, into WRITTEN.  Returns a description of each write that
+     *  failed, in no particular order; the others are done
+     *  regardless. */
+    static List<String> write(Map<File, String> files, ObjectStore store,
+                              Map<File, FileStat> written) {
+        ArrayList<String> errors = new ArrayList<>();
+        if (files.isEmpty()) {
+            return errors;
+        }
+        ExecutorService pool =
+            Executors.newFixedThreadPool(Math.min(threads(), files.size()));
+        try {
+            HashMap<File, Future<FileStat>> writes = new HashMap<>();
+            for (Map.Entry<File, String> file : files.entrySet()) {
+                writes.put(file.getKey(), pool.submit(() -> {
+                    file.getKey().getParentFile().mkdirs();
+                    Blob.copyTo(store.open(file.getValue()), file.getKey());
+                    return FileStat.of(file.getKey());
+                }));
+            }
+            for (Map.Entry<File, Future<FileStat>> write
+                     : writes.entrySet()) {
+                try {
+                    written.put(write.getKey(), write.getValue().get());
+                } catch (ExecutionException excp) {
+                    errors.add(excp.getCause().getMessage());
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    errors.add(excp.getMessage());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return errors;
+    }
+
+}
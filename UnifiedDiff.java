@@ -0,0 +1,143 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Writes the changes between two versions of a file in the unified
+ *  format of diff -u and git diff: a header naming the file, and then
+ *  hunks of the changed lines, "-" before old lines and "+" before new
+ *  ones, with CONTEXT unchanged lines around them.  Changes at most
+ *  2 * CONTEXT lines apart share a hunk.
+ *  @author Elizaveta Belkina
+ */
+class UnifiedDiff {
+
+    /** Number of unchanged lines shown around each change. */
+    static final int CONTEXT = 3;
+
+    /** Size in bytes of the largest version of a file that is diffed:
+     *  a sixteenth of the largest heap, and at most 64 MiB.  Diffing
+     *  needs both versions and an index of their lines in memory, so
+     *  larger files are only reported to differ, without being read
+     *  whole. */
+    static final int MAX_SIZE =
+        (int) Math.min(64 << 20, Runtime.getRuntime().maxMemory() / 16);
+
+    /** Names a missing version of a file. */
+    static final String NO_FILE = "/dev/null";
+
+    /** Written after a line lacking a line terminator. */
+    private static final String NO_NEWLINE =
+        "\n\\ No newline at end of file\n";
+
+    /** Writes to OUT that the versions of the file at PATH differ, one
+     *  of them being larger than MAX_SIZE.  OLDMISSING and NEWMISSING
+     *  tell whether the file is missing from either side. */
+    static void writeTooLarge(String path, boolean oldMissing,
+                              boolean newMissing, OutputStream out)
+            throws IOException {
+        write(out, "diff --git a/" + path + " b/" + path + "\n");
+        write(out, "Large files " + name("a/", path, oldMissing) + " and "
+              + name("b/", path, newMissing) + " differ (over "
+              + MAX_SIZE / 1024 + " KiB, not diffed)\n");
+    }
+
+    /** Writes to OUT the changes from OLDLINES to NEWLINES, versions of
+     *  the file at PATH, either of which may be null if the file is
+     *  missing from that side.  Only the header is written if either
+     *  version looks binary. */
+    static void write(String path, Lines oldLines, Lines newLines,
+                      OutputStream out) throws IOException {
+        write(out, "diff --git a/" + path + " b/" + path + "\n");
+        if ((oldLines != null && oldLines.isBinary())
+            || (newLines != null && newLines.isBinary())) {
+            write(out, "Binary files " + name("a/", path, oldLines == null)
+                  + " and " + name("b/", path, newLines == null)
+                  + " differ\n");
+            return;
+        }
+        write(out, "--- " + name("a/", path, oldLines == null) + "\n");
+        write(out, "+++ " + name("b/", path, newLines == null) + "\n");
+        if (oldLines == null) {
+            oldLines = new Lines(new byte[0]);
+        }
+        if (newLines == null) {
+            newLines = new Lines(new byte[0]);
+        }
+        int ids = Lines.intern(oldLines, newLines);
+        List<Diff.Edit> edits = Diff.diff(oldLines, newLines, ids);
+        for (int first = 0, last; first < edits.size(); first = last + 1) {
+            last = first;
+            while (last + 1 < edits.size()
+                   && edits.get(last + 1).getOldStart()
+                   - edits.get(last).getOldEnd() <= 2 * CONTEXT) {
+                last += 1;
+            }
+            writeHunk(edits.subList(first, last + 1), oldLines, newLines,
+                      out);
+        }
+    }
+
+    /** Writes to OUT the hunk showing EDITS, which turn lines of
+     *  OLDLINES into lines of NEWLINES, with their context. */
+    private static void writeHunk(List<Diff.Edit> edits, Lines oldLines,
+                                  Lines newLines, OutputStream out)
+            throws IOException {
+        Diff.Edit first = edits.get(0), last = edits.get(edits.size() - 1);
+        int oldStart = Math.max(0, first.getOldStart() - CONTEXT);
+        int oldEnd = Math.min(oldLines.size(), last.getOldEnd() + CONTEXT);
+        int newStart = first.getNewStart() - (first.getOldStart() - oldStart);
+        int newEnd = last.getNewEnd() + (oldEnd - last.getOldEnd());
+        write(out, "@@ -" + range(oldStart, oldEnd) + " +"
+              + range(newStart, newEnd) + " @@\n");
+        int next = oldStart;
+        for (Diff.Edit edit : edits) {
+            writeLines(' ', oldLines, next, edit.getOldStart(), out);
+            writeLines('-', oldLines, edit.getOldStart(), edit.getOldEnd(),
+                       out);
+            writeLines('+', newLines, edit.getNewStart(), edit.getNewEnd(),
+                       out);
+            next = edit.getOldEnd();
+        }
+        writeLines(' ', oldLines, next, oldEnd, out);
+    }
+
+    /** Writes to OUT lines FROM up to TO of TEXT, each after PREFIX. */
+    private static void writeLines(char prefix, Lines text, int from,
+                                   int to, OutputStream out)
+            throws IOException {
+        for (int line = from; line < to; line += 1) {
+            out.write(prefix);
+            text.write(out, line, line + 1);
+            if (!text.terminated(line, line + 1)) {
+                write(out, NO_NEWLINE);
+            }
+        }
+    }
+
+    /** Returns the range of lines FROM up to TO as a hunk header shows
+     *  it: the first line, counting from 1, and the number of lines if
+     *  it is not 1.  An empty range is shown by the line before it. */
+    private static String range(int from, int to) {
+        if (to - from == 1) {
+            return Integer.toString(from + 1);
+        }
+        return (to == from ? from : from + 1) + "," + (to - from);
+    }
+
+    /** Returns the name of a version of the file at PATH, with PREFIX,
+     *  or NO_FILE if that version is MISSING. */
+    private static String name(String prefix, String path,
+                               boolean missing) {
+        return missing ? NO_FILE : prefix + path;
+    }
+
+    /** Writes TEXT to OUT in UTF-8. */
+    private static void write(OutputStream out, String text)
+            throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,613 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/** Round-trip tests of the binary formats of commits, trees and the
+ *  staging area, and of the Codec primitives they are made of,
+ *  including the Java-serialized forms stored before those formats
+ *  existed, and tests of the deltas, diffs and merges of file
+ *  contents.  Each test is a method whose name ends in "Test"; main
+ *  runs them all and reports the failures, exiting with status 1 if
+ *  there are any.  The tests need nothing beyond the JDK, so that
+ *  every build of the sources, the benchmarks' included, compiles
+ *  them.
+ *  @author Elizaveta Belkina
+ */
+public class UnitTest {
+
+    /** A hexadecimal SHA-1 id. */
+    private static final String ID1 =
+        "0123456789abcdef0123456789abcdef01234567";
+
+    /** Another hexadecimal SHA-1 id. */
+    private static final String ID2 =
+        "fedcba9876543210fedcba9876543210fedcba98";
+
+    /** A third hexadecimal SHA-1 id. */
+    private static final String ID3 =
+        "a94a8fe5ccb19ba61c4c0873d391e987982fbbd3";
+
+    /** Runs the tests, ignoring ARGS. */
+    public static void main(String... args) throws Exception {
+        ArrayList<Method> tests = new ArrayList<>();
+        for (Method method : UnitTest.class.getDeclaredMethods()) {
+            if (method.getName().endsWith("Test")) {
+                tests.add(method);
+            }
+        }
+        tests.sort(Comparator.comparing(Method::getName));
+        int failures = 0;
+        for (Method test : tests) {
+            try {
+                test.invoke(null);
+            } catch (InvocationTargetException excp) {
+                failures += 1;
+                System.out.printf("%s failed: %s%n", test.getName(),
+                                  excp.getCause());
+            }
+        }
+        System.out.printf("Ran %d tests, %d failed.%n", tests.size(),
+                          failures);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /** Varints of the boundary values of each length read back. */
+    static void varintTest() throws IOException {
+        long[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE,
+                          Long.MAX_VALUE, -1 };
+        int[] sizes = { 1, 1, 1, 2, 2, 3, 5, 9, 10 };
+        for (int k = 0; k < values.length; k += 1) {
+            long value = values[k];
+            byte[] bytes = Codec.encode(out -> Codec.writeVarint(out, value));
+            check("varint size of " + value, sizes[k], bytes.length);
+            check("varint " + value, value,
+                  Codec.readVarint(Codec.input(bytes)));
+        }
+    }
+
+    /** Null, empty and non-ASCII strings read back. */
+    static void stringTest() throws IOException {
+        for (String s : Arrays.asList(null, "", "a message",
+                                      "caf\u00e9 \u65e5\u672c \ud83d\ude00")) {
+            byte[] bytes = Codec.encode(out -> Codec.writeString(out, s));
+            check("string " + s, s, Codec.readString(Codec.input(bytes)));
+        }
+    }
+
+    /** Null, full, abbreviated and non-hexadecimal ids read back, full
+     *  ones stored as their raw bytes. */
+    static void idTest() throws IOException {
+        for (String id : Arrays.asList(null, ID1, ID2, "0123a", "",
+                                       ID1.toUpperCase(), ID1 + "0",
+                                       ID1.replace('a', 'g'))) {
+            byte[] bytes = Codec.encode(out -> Codec.writeId(out, id));
+            check("id " + id, id, Codec.readId(Codec.input(bytes)));
+        }
+        byte[] full = Codec.encode(out -> Codec.writeId(out, ID1));
+        check("size of a full id", 1 + Utils.UID_BYTES, full.length);
+    }
+
+    /** Empty maps and maps holding null and abbreviated ids read back. */
+    static void idsTest() throws IOException {
+        TreeMap<String, String> empty = new TreeMap<>();
+        byte[] bytes = Codec.encode(out -> Codec.writeIds(out, empty));
+        check("size of an empty map", 1, bytes.length);
+        check("empty map", empty, Codec.readIds(Codec.input(bytes)));
+
+        TreeMap<String, String> files = new TreeMap<>();
+        files.put("a.txt", ID1);
+        files.put("dir/b.txt", ID2);
+        files.put("", "abc");
+        files.put("none", null);
+        bytes = Codec.encode(out -> Codec.writeIds(out, files));
+        DataInputStream in = Codec.input(bytes);
+        check("map", files, Codec.readIds(in));
+        check("bytes left after the map", 0, in.available());
+    }
+
+    /** A commit with a tree and no parent, like the initial commit, and
+     *  a commit with a parent read back, with the same encoding and so
+     *  the same id. */
+    static void commitTest() {
+        Commit initial = new Commit("initial commit", null,
+                                    "1970-01-01 00:00:00", null);
+        initial.setTree(ID3);
+        Commit read = roundTrip(initial);
+        checkCommit(initial, read);
+        check("contents of a commit with a tree", null, read.getContents());
+
+        Commit child = new Commit("second", initial.createId(),
+                                  "2021-03-04 05:06:07", null);
+        child.setTree(ID2);
+        checkCommit(child, roundTrip(child));
+    }
+
+    /** A merge commit keeps both its parents. */
+    static void mergeCommitTest() {
+        Commit merge = new Commit("Merged other into master.", ID1,
+                                  "2021-03-04 05:06:07", ID2);
+        merge.setTree(ID3);
+        Commit read = roundTrip(merge);
+        checkCommit(merge, read);
+        check("merge parent", ID2, read.getMergeParent());
+    }
+
+    /** A commit holding its files, as made before trees, keeps them, and
+     *  one holding none keeps an empty map. */
+    static void legacyContentsCommitTest() {
+        Commit commit = new Commit("files", ID1, "2019-12-31 23:59:59",
+                                   null);
+        commit.addToCommit("a.txt", ID2);
+        commit.addToCommit("dir/b.txt", ID3);
+        Commit read = roundTrip(commit);
+        checkCommit(commit, read);
+        check("contents", commit.getContents(), read.getContents());
+
+        Commit empty = new Commit("none", ID1, "2019-12-31 23:59:59", null);
+        read = roundTrip(empty);
+        checkCommit(empty, read);
+        check("empty contents", new TreeMap<String, String>(),
+              read.getContents());
+    }
+
+    /** A commit stored with Java serialization, as before the binary
+     *  format, is still read, with the files it holds. */
+    static void javaSerializedCommitTest() {
+        Commit commit = new Commit("old", ID1, "2018-01-02 03:04:05", ID2);
+        commit.addToCommit("a.txt", ID3);
+        byte[] stored = Utils.serialize(commit);
+        check("Java serialization detected", true,
+              Codec.isJavaSerialized(stored));
+        Commit read = Commit.read(new ByteArrayInputStream(stored));
+        checkCommit(commit, read);
+        check("serialized contents", commit.getContents(),
+              read.getContents());
+    }
+
+    /** A commit of an unknown format version is rejected. */
+    static void unknownCommitFormatTest() {
+        Commit commit = new Commit("new", ID1, "2030-01-01 00:00:00", null);
+        commit.setTree(ID2);
+        byte[] stored = commit.encode();
+        stored[0] = (byte) (Commit.FORMAT + 1);
+        try {
+            Commit.read(new ByteArrayInputStream(stored));
+        } catch (GitletException excp) {
+            return;
+        }
+        throw new AssertionError("unknown commit format accepted");
+    }
+
+    /** Trees, empty or holding files and subtrees, read back, with the
+     *  same encoding and so the same id. */
+    static void treeTest() {
+        Tree empty = new Tree();
+        Tree read = Tree.read(new ByteArrayInputStream(empty.encode()));
+        check("empty tree", true, read.isEmpty());
+        check("empty tree encoding", empty.encode(), read.encode());
+
+        Tree tree = new Tree();
+        tree.getBlobs().put("a.txt", ID1);
+        tree.getBlobs().put("b.txt", ID2);
+        tree.getTrees().put("dir", ID3);
+        read = Tree.read(new ByteArrayInputStream(tree.encode()));
+        check("blobs", tree.getBlobs(), read.getBlobs());
+        check("trees", tree.getTrees(), read.getTrees());
+        check("tree encoding", tree.encode(), read.encode());
+    }
+
+    /** A tree stored with Java serialization, as before the binary
+     *  format, is still read. */
+    static void javaSerializedTreeTest() {
+        Tree tree = new Tree();
+        tree.getBlobs().put("a.txt", ID1);
+        tree.getTrees().put("dir", ID2);
+        byte[] stored = Utils.serialize(tree);
+        check("Java serialization detected", true,
+              Codec.isJavaSerialized(stored));
+        Tree read = Tree.read(new ByteArrayInputStream(stored));
+        check("serialized blobs", tree.getBlobs(), read.getBlobs());
+        check("serialized trees", tree.getTrees(), read.getTrees());
+    }
+
+    /** An empty staging area reads back empty. */
+    static void emptyIndexTest() {
+        Index index = new Index();
+        Index read = Index.decode(index.encode());
+        check("staged", new TreeMap<String, String>(), read.getAdd());
+        check("removed", new TreeMap<String, String>(), read.getRemove());
+        check("empty", true, read.empty());
+        check("re-encoding", index.encode(), read.encode());
+    }
+
+    /** Files staged for addition and removal and stat cache entries,
+     *  with and without a file key, read back. */
+    static void indexTest() {
+        Index index = new Index();
+        index.toStage("a.txt", ID1);
+        index.toStage("dir/b.txt", ID2);
+        index.toRemove("gone.txt", ID3);
+        index.cacheBlob("a.txt", stat(12, 1000, "(dev=1,ino=2)"), ID1);
+        index.cacheBlob("c.txt", stat(0, 2000, null), ID3);
+        Index read = Index.decode(index.encode());
+        check("staged", index.getAdd(), read.getAdd());
+        check("removed", index.getRemove(), read.getRemove());
+        check("cached a.txt", ID1,
+              read.cachedBlob("a.txt", stat(12, 1000, "(dev=1,ino=2)")));
+        check("cached c.txt", ID3,
+              read.cachedBlob("c.txt", stat(0, 2000, null)));
+        check("changed a.txt", null,
+              read.cachedBlob("a.txt", stat(13, 1000, "(dev=1,ino=2)")));
+        check("uncached b.txt", null,
+              read.cachedBlob("dir/b.txt", stat(1, 1, null)));
+        check("re-encoding", index.encode(), read.encode());
+    }
+
+    /** A snapshot in format 1, which had no generation, is still read. */
+    static void indexFormat1Test() {
+        TreeMap<String, String> added = new TreeMap<>();
+        added.put("a.txt", ID1);
+        TreeMap<String, String> removed = new TreeMap<>();
+        removed.put("b.txt", ID2);
+        byte[] stored = Codec.encode(out -> {
+            out.writeByte(1);
+            Codec.writeIds(out, added);
+            Codec.writeIds(out, removed);
+            Codec.writeVarint(out, 0);
+        });
+        Index read = Index.decode(stored);
+        check("staged", added, read.getAdd());
+        check("removed", removed, read.getRemove());
+    }
+
+    /** A staging area stored with Java serialization, as before the
+     *  binary format, is still read, with its stat cache. */
+    static void javaSerializedIndexTest() {
+        Index index = new Index();
+        index.toStage("a.txt", ID1);
+        index.toRemove("b.txt", ID2);
+        index.cacheBlob("a.txt", stat(5, 3000, null), ID1);
+        byte[] stored = Utils.serialize(index);
+        check("Java serialization detected", true,
+              Codec.isJavaSerialized(stored));
+        Index read = Index.decode(stored);
+        check("staged", index.getAdd(), read.getAdd());
+        check("removed", index.getRemove(), read.getRemove());
+        check("cached", ID1, read.cachedBlob("a.txt", stat(5, 3000, null)));
+    }
+
+    /** Changes saved to the journal, and a journal cut short, are read
+     *  back with the snapshot. */
+    static void indexJournalTest() throws IOException {
+        File dir = Files.createTempDirectory("gitlet-unit").toFile();
+        File file = new File(dir, "index");
+        File journal = new File(dir, Index.JOURNAL);
+        try {
+            Index index = new Index();
+            index.toStage("a.txt", ID1);
+            index.write(file);
+            check("journal after a snapshot", false, journal.exists());
+
+            index = Index.read(file);
+            index.toStage("b.txt", ID2);
+            index.toRemove("c.txt", ID3);
+            index.remove("a.txt");
+            index.cacheBlob("b.txt", stat(7, 4000, null), ID2);
+            index.write(file);
+            check("journal after changes", true, journal.exists());
+
+            Index read = Index.read(file);
+            check("staged", index.getAdd(), read.getAdd());
+            check("removed", index.getRemove(), read.getRemove());
+            check("cached", ID2,
+                  read.cachedBlob("b.txt", stat(7, 4000, null)));
+
+            read.reset();
+            read.write(file);
+            byte[] complete = Utils.readContents(journal);
+            Utils.writeContents(journal,
+                                Arrays.copyOf(complete, complete.length - 1));
+            read = Index.read(file);
+            check("staged before a torn record", index.getAdd(),
+                  read.getAdd());
+        } finally {
+            file.delete();
+            journal.delete();
+            dir.delete();
+        }
+    }
+
+    /** The time the working files were settled is read back from the
+     *  snapshot and the journal, vouches only for entries cached before
+     *  it, and is cleared when a cached blob is forgotten. */
+    static void indexSettleTest() throws IOException {
+        File dir = Files.createTempDirectory("gitlet-unit").toFile();
+        File file = new File(dir, "index");
+        File journal = new File(dir, Index.JOURNAL);
+        FileStat a = stat(12, 1000, null);
+        long settled = a.examined() + 1;
+        try {
+            Index index = new Index();
+            check("new", 0L, index.settled());
+            index.cacheBlob("a.txt", a, ID1);
+            index.cacheBlob("b.txt", stat(3, settled, null), ID2);
+            index.settle(settled);
+            check("snapshot", settled, Index.decode(index.encode()).settled());
+            check("settled a.txt", ID1, index.settledBlob("a.txt", a));
+            check("b.txt cached after settling", null,
+                  index.settledBlob("b.txt", stat(3, settled, null)));
+            check("changed a.txt", null,
+                  index.settledBlob("a.txt", stat(13, 1000, null)));
+            index.write(file);
+
+            index = Index.read(file);
+            index.settle(settled + 1);
+            index.write(file);
+            check("journal", true, journal.exists());
+            index = Index.read(file);
+            check("settled from the journal", settled + 1, index.settled());
+
+            index.retainStats(Arrays.asList("a.txt"));
+            check("unsettled", 0L, index.settled());
+            check("unsettled a.txt", null, index.settledBlob("a.txt", a));
+            index.write(file);
+            check("unsettled from the journal", 0L,
+                  Index.read(file).settled());
+        } finally {
+            file.delete();
+            journal.delete();
+            dir.delete();
+        }
+    }
+
+    /** Deltas between empty, identical, unrelated and edited contents
+     *  turn their bases into their targets, and a delta between
+     *  identical contents is a small fraction of them. */
+    static void deltaTest() {
+        byte[] empty = new byte[0];
+        byte[] text = numbered(400, 0, -1, null);
+        byte[] edited = numbered(400, 150, 250, "changed");
+        byte[] unrelated = new byte[text.length];
+        for (int k = 0; k < unrelated.length; k += 1) {
+            unrelated[k] = (byte) (k * 7919 >> 3);
+        }
+        byte[][] contents = { empty, text, edited, unrelated,
+                              bytes("short") };
+        for (byte[] base : contents) {
+            for (byte[] target : contents) {
+                check("delta from " + base.length + " to " + target.length
+                      + " bytes", target,
+                      Delta.apply(base, Delta.create(base, target)));
+            }
+        }
+        check("delta between identical contents is small", true,
+              Delta.create(text, text).length < text.length / 100);
+    }
+
+    /** The edits of diffs, applied to the old lines, give the new ones,
+     *  and come in order without touching each other. */
+    static void diffTest() throws IOException {
+        String[] texts = { "", "a\n", "a\nb\nc\n", "a\nx\nc\n",
+                           "a\nb\nc", "c\nb\na\n", "b\nb\nb\nb\n" };
+        for (String oldText : texts) {
+            for (String newText : texts) {
+                checkDiff(bytes(oldText), bytes(newText));
+            }
+        }
+        checkDiff(numbered(300, 0, -1, null),
+                  numbered(300, 100, 120, "changed"));
+        checkDiff(numbered(300, 0, -1, null), numbered(200, 50, 60, "x"));
+        Lines same = new Lines(numbered(50, 0, -1, null));
+        Lines copy = new Lines(numbered(50, 0, -1, null));
+        check("edits between identical lines", 0,
+              Diff.diff(same, copy, Lines.intern(same, copy)).size());
+    }
+
+    /** Changes to different lines on the two sides are both kept, and
+     *  the same change on both sides is made once, without conflicts. */
+    static void lineMergeTest() throws IOException {
+        String base = "1\n2\n3\n4\n5\n6\n7\n8\n9\n";
+        checkMerge(base, "1\ntwo\n3\n4\n5\n6\n7\n8\n9\n",
+                   "1\n2\n3\n4\n5\n6\n7\neight\n9\n",
+                   "1\ntwo\n3\n4\n5\n6\n7\neight\n9\n", false);
+        checkMerge(base, "1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n",
+                   "0\n1\n2\n3\n4\n6\n7\n8\n9\n",
+                   "0\n1\n2\n3\n4\n6\n7\n8\n9\n10\n", false);
+        checkMerge(base, "1\n2\nthree\n4\n5\n6\n7\n8\n9\n",
+                   "1\n2\nthree\n4\n5\n6\n7\n8\n9\n",
+                   "1\n2\nthree\n4\n5\n6\n7\n8\n9\n", false);
+        checkMerge(base, base, "", "", false);
+    }
+
+    /** Different changes to the same lines conflict, with both sides
+     *  between markers, each ending a line even where the file does
+     *  not. */
+    static void lineMergeConflictTest() throws IOException {
+        checkMerge("a\nb\nc\n", "a\nours\nc\n", "a\ntheirs\nc\n",
+                   "a\n<<<<<<< HEAD\nours\n=======\ntheirs\n"
+                   + ">>>>>>>\nc\n", true);
+        checkMerge("a\nb\nc\nd\n", "a\nB\nC\nd\n",
+                   "a\nb\nsee\nd\n",
+                   "a\n<<<<<<< HEAD\nB\nC\n=======\nb\nsee\n"
+                   + ">>>>>>>\nd\n", true);
+        checkMerge("a\nb", "a\nours", "a\ntheirs",
+                   "a\n<<<<<<< HEAD\nours\n=======\ntheirs\n"
+                   + ">>>>>>>\n", true);
+        checkMerge("a\nb", "A\nb", "a\nb", "A\nb", false);
+        checkMerge("a\nb", "a\nb", "a\nb\n", "a\nb\n", false);
+    }
+
+    /** Hunks show their changes with up to CONTEXT unchanged lines on
+     *  each side, joining changes closer than twice that, and their
+     *  headers give the ranges of lines they show. */
+    static void unifiedDiffTest() throws IOException {
+        String header = "diff --git a/f b/f\n--- a/f\n+++ b/f\n";
+        checkUnifiedDiff("1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n",
+                         "1\n2\n3\n4\nfive\n6\n7\n8\n9\n10\n",
+                         header + "@@ -2,7 +2,7 @@\n 2\n 3\n 4\n-5\n"
+                         + "+five\n 6\n 7\n 8\n");
+        checkUnifiedDiff("1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n11\n12\n",
+                         "one\n2\n3\n4\n5\n6\n7\n8\n9\n10\n11\n",
+                         header + "@@ -1,4 +1,4 @@\n-1\n+one\n 2\n 3\n"
+                         + " 4\n@@ -9,4 +9,3 @@\n 9\n 10\n 11\n-12\n");
+        checkUnifiedDiff("1\n2\n3\n4\n5\n6\n7\n8\n",
+                         "one\n2\n3\n4\n5\n6\n7\neight\n",
+                         header + "@@ -1,8 +1,8 @@\n-1\n+one\n 2\n 3\n"
+                         + " 4\n 5\n 6\n 7\n-8\n+eight\n");
+        checkUnifiedDiff("a\n", "a",
+                         header + "@@ -1 +1 @@\n-a\n+a\n"
+                         + "\\ No newline at end of file\n");
+        checkUnifiedDiff("same\n", "same\n", header);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        UnifiedDiff.write("f", null, new Lines(bytes("x\ny\n")), out);
+        check("diff of a new file", "diff --git a/f b/f\n--- /dev/null\n"
+              + "+++ b/f\n@@ -0,0 +1,2 @@\n+x\n+y\n", string(out));
+        out.reset();
+        UnifiedDiff.write("f", new Lines(bytes("x\n")), null, out);
+        check("diff of a removed file", "diff --git a/f b/f\n--- a/f\n"
+              + "+++ /dev/null\n@@ -1 +0,0 @@\n-x\n", string(out));
+    }
+
+    /** Returns COMMIT read back from its binary encoding. */
+    private static Commit roundTrip(Commit commit) {
+        return Commit.read(new ByteArrayInputStream(commit.encode()));
+    }
+
+    /** Checks that READ has the fields of EXPECTED and, if it is in the
+     *  binary format, the same encoding. */
+    private static void checkCommit(Commit expected, Commit read) {
+        check("message", expected.getMessage(), read.getMessage());
+        check("timestamp", expected.getTimestamp(), read.getTimestamp());
+        check("parent", expected.getParent(), read.getParent());
+        check("merge parent", expected.getMergeParent(),
+              read.getMergeParent());
+        check("tree", expected.getTree(), read.getTree());
+        check("encoding", expected.encode(), read.encode());
+    }
+
+    /** Checks that the edits of the diff from OLDTEXT to NEWTEXT are
+     *  in order, never adjacent, and turn OLDTEXT into NEWTEXT. */
+    private static void checkDiff(byte[] oldText, byte[] newText)
+            throws IOException {
+        Lines oldLines = new Lines(oldText), newLines = new Lines(newText);
+        List<Diff.Edit> edits =
+            Diff.diff(oldLines, newLines, Lines.intern(oldLines, newLines));
+        String what = "diff of " + show(oldText) + " and " + show(newText);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int next = 0, nextNew = 0;
+        for (Diff.Edit edit : edits) {
+            check(what + " in order", true, edit == edits.get(0)
+                  || next < edit.getOldStart());
+            check(what + " unchanged lines", edit.getOldStart() - next,
+                  edit.getNewStart() - nextNew);
+            oldLines.write(out, next, edit.getOldStart());
+            newLines.write(out, edit.getNewStart(), edit.getNewEnd());
+            next = edit.getOldEnd();
+            nextNew = edit.getNewEnd();
+        }
+        oldLines.write(out, next, oldLines.size());
+        check(what, newText, out.toByteArray());
+    }
+
+    /** Checks that merging the changes OURS and THEIRS make to BASE
+     *  gives EXPECTED, conflicting iff CONFLICT. */
+    private static void checkMerge(String base, String ours, String theirs,
+                                   String expected, boolean conflict)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean conflicted = LineMerge.merge(new Lines(bytes(base)),
+                                             new Lines(bytes(ours)),
+                                             new Lines(bytes(theirs)), out);
+        String what = "merge of " + ours + " and " + theirs;
+        check(what, expected, string(out));
+        check("conflict in " + what, conflict, conflicted);
+    }
+
+    /** Checks that the unified diff of OLDTEXT and NEWTEXT, as the
+     *  file f, is EXPECTED. */
+    private static void checkUnifiedDiff(String oldText, String newText,
+                                         String expected)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        UnifiedDiff.write("f", new Lines(bytes(oldText)),
+                          new Lines(bytes(newText)), out);
+        check("diff of " + oldText + " and " + newText, expected,
+              string(out));
+    }
+
+    /** Returns COUNT numbered lines, with lines FROM up to TO replaced
+     *  by lines holding REPLACEMENT, in UTF-8. */
+    private static byte[] numbered(int count, int from, int to,
+                                   String replacement) {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; line < count; line += 1) {
+            text.append(line >= from && line < to ? replacement
+                        : "line " + line).append('\n');
+        }
+        return bytes(text.toString());
+    }
+
+    /** Returns TEXT in UTF-8. */
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns the bytes written to OUT, decoded from UTF-8. */
+    private static String string(ByteArrayOutputStream out) {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Returns the stat data of a file of SIZE bytes modified at
+     *  MODIFIED nanoseconds with file key KEY, examined long enough
+     *  after for it to be trusted. */
+    private static FileStat stat(long size, long modified, String key) {
+        byte[] bytes = Codec.encode(out -> {
+            Codec.writeVarint(out, size);
+            Codec.writeVarint(out, modified);
+            Codec.writeString(out, key);
+            Codec.writeVarint(out, modified + 2 * FileStat.RACY_NANOS);
+        });
+        try {
+            return FileStat.read(Codec.input(bytes));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Throws an AssertionError naming WHAT unless ACTUAL equals
+     *  EXPECTED, comparing arrays by their contents. */
+    private static void check(String what, Object expected, Object actual) {
+        boolean same = expected instanceof byte[] && actual instanceof byte[]
+            ? Arrays.equals((byte[]) expected, (byte[]) actual)
+            : Objects.equals(expected, actual);
+        if (!same) {
+            throw new AssertionError(String.format(
+                "%s: expected %s but got %s", what, show(expected),
+                show(actual)));
+        }
+    }
+
+    /** Returns X as a string, showing the contents of byte arrays. */
+    private static String show(Object x) {
+        return x instanceof byte[] ? Arrays.toString((byte[]) x)
+            : String.valueOf(x);
+    }
+
+}
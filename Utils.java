@@ -8,8 +8,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -45,22 +47,84 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the SHA-1 hash of the exact bytes of FILE, read through a
+     *  buffer of bounded size.  Throws IllegalArgumentException in case
+     *  of problems. */
+    static String sha1Contents(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return copyWithSha1(in, OutputStream.nullOutputStream());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copies the rest of IN to OUT in a single pass through a buffer of
+     *  bounded size, and returns the SHA-1 hash of the bytes copied. */
+    static String copyWithSha1(InputStream in, OutputStream out)
+        throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+                out.write(buffer, 0, n);
             }
-            return result.toString();
+            return toHex(md.digest());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** Size of the buffers used to stream file contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Returns DIGEST as a lower-case hexadecimal numeral. */
+    static String toHex(byte[] digest) {
+        Formatter result = new Formatter();
+        for (byte b : digest) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** The length of a complete SHA-1 UID in bytes. */
+    static final int UID_BYTES = UID_LENGTH / 2;
+
+    /** Returns the UID_BYTES bytes denoted by the hexadecimal UID. */
+    static byte[] uidBytes(String uid) {
+        byte[] result = new byte[UID_BYTES];
+        for (int i = 0; i < UID_BYTES; i += 1) {
+            result[i] = (byte) (Character.digit(uid.charAt(2 * i), 16) << 4
+                                | Character.digit(uid.charAt(2 * i + 1),
+                                                  16));
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal UID spelled by the UID_BYTES bytes of
+     *  BYTES starting at OFFSET. */
+    static String uidString(byte[] bytes, int offset) {
+        char[] result = new char[UID_LENGTH];
+        for (int i = 0; i < UID_BYTES; i += 1) {
+            int b = bytes[offset + i] & 0xff;
+            result[2 * i] = Character.forDigit(b >> 4, 16);
+            result[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(result);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -139,11 +203,19 @@ class Utils {
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
+            return readObject(new FileInputStream(file), expectedClass);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return an object of type T read from STREAM, casting it to
+     *  EXPECTEDCLASS, and close STREAM.  Throws IllegalArgumentException
+     *  in case of problems. */
+    static <T extends Serializable> T readObject(InputStream stream,
+                                                 Class<T> expectedClass) {
+        try (ObjectInputStream in = new ObjectInputStream(stream)) {
+            return expectedClass.cast(in.readObject());
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
             throw new IllegalArgumentException(excp.getMessage());
@@ -230,4 +302,22 @@ class Utils {
         System.out.printf(msg, args);
         System.out.println();
     }
+
+    /** Name of the environment variable that turns on tracing. */
+    static final String TRACE_VARIABLE = "GITLET_TRACE";
+
+    /** Name of the system property that turns on tracing. */
+    static final String TRACE_PROPERTY = "gitlet.trace";
+
+    /** Print a message composed from MSG and ARGS as for the String.format
+     *  method, followed by a newline, on the standard error, if tracing
+     *  is on: if the environment variable TRACE_VARIABLE is set or the
+     *  system property TRACE_PROPERTY is true. */
+    static void trace(String msg, Object... args) {
+        if (System.getenv(TRACE_VARIABLE) != null
+            || Boolean.getBoolean(TRACE_PROPERTY)) {
+            System.err.printf(msg, args);
+            System.err.println();
+        }
+    }
 }
@@ -0,0 +1,89 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Random;
+
+/** Compares the compressed blob store with the older uncompressed
+ *  format: bytes on disk, and the throughput of checkoutBranch writing
+ *  every tracked file.  Must be run in an empty directory.  Optional
+ *  arguments are the number of files (default 2000) and the number of
+ *  lines per file (default 400).
+ *  @author Elizaveta Belkina
+ */
+class BlobBenchmark {
+
+    /** Number of timed checkouts for each format. */
+    private static final int ROUNDS = 5;
+
+    /** Words making up the generated text files. */
+    private static final String[] WORDS = {
+        "commit", "branch", "merge", "blob", "index", "stage", "checkout",
+        "reset", "status", "log", "the", "a", "of", "to", "and", "in",
+    };
+
+    /** Runs the benchmark with optional ARGS FILES and LINES. */
+    public static void main(String... args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int lines = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+
+        Command.init();
+        Command.branch("empty");
+        Random random = new Random(61);
+        long rawBytes = 0;
+        for (int i = 0; i < files; i += 1) {
+            String name = "file" + i + ".txt";
+            String contents = text(random, lines);
+            Utils.writeContents(new File(Command.CWD, name), contents);
+            rawBytes += new File(Command.CWD, name).length();
+            Command.add(name);
+        }
+        Command.commit("generated files");
+
+        System.out.printf("%d files, %d bytes of contents%n", files,
+                          rawBytes);
+        report("compressed", rawBytes);
+        for (String blob : Command.BLOB_STORE.ids()) {
+            Utils.writeContents(Command.BLOB_STORE.file(blob),
+                                Blob.readContents(
+                                    Command.BLOB_STORE.open(blob)));
+        }
+        report("uncompressed", rawBytes);
+    }
+
+    /** Prints the size of the blob store, labelled FORMAT, and the
+     *  throughput of checking out the generated files, which hold
+     *  RAWBYTES bytes in all. */
+    private static void report(String format, long rawBytes) {
+        long stored = 0;
+        for (String blob : Command.BLOB_STORE.ids()) {
+            stored += Command.BLOB_STORE.file(blob).length();
+        }
+        long nanos = 0;
+        for (int r = 0; r < ROUNDS; r += 1) {
+            Command.checkoutBranch("empty");
+            long start = System.nanoTime();
+            Command.checkoutBranch("master");
+            nanos += System.nanoTime() - start;
+        }
+        double seconds = nanos / 1e9 / ROUNDS;
+        System.out.printf("%-13s %12d bytes on disk  %8.1f MB/s checkout%n",
+                          format, stored, rawBytes / 1e6 / seconds);
+    }
+
+    /** Returns LINES lines of text made of words chosen by RANDOM. */
+    private static String text(Random random, int lines) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            int words = 4 + random.nextInt(8);
+            for (int w = 0; w < words; w += 1) {
+                if (w > 0) {
+                    result.append(' ');
+                }
+                result.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,105 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+/** Compares the binary formats of commits and the staging area with
+ *  Java serialization, which they replaced: bytes per object, and the
+ *  time to encode and to decode one.  Must be run in an empty
+ *  directory, where it creates the working files whose stat data fills
+ *  the staging area.  Optional arguments are the number of files in the
+ *  staging area (default 1000) and the number of operations timed per
+ *  round (default 20000).
+ *  @author Elizaveta Belkina
+ */
+class CodecBenchmark {
+
+    /** Number of timed rounds per operation; the fastest counts.  The
+     *  first rounds also warm up the JIT compiler. */
+    private static final int ROUNDS = 7;
+
+    /** An operation on objects of one kind in one format, returning a
+     *  number that depends on its result so that it is not optimized
+     *  away. */
+    private interface Operation {
+        /** Performs the operation once. */
+        long run();
+    }
+
+    /** Runs the benchmark with optional ARGS FILES and OPERATIONS. */
+    public static void main(String... args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int operations = args.length > 1 ? Integer.parseInt(args[1])
+            : 20000;
+
+        Commit commit = new Commit("Fix the merge of renamed files",
+                                   Utils.sha1("parent"),
+                                   "2020-01-01 12:34:56",
+                                   Utils.sha1("merge parent"));
+        commit.setTree(Utils.sha1("tree"));
+        Index index = new Index();
+        for (int i = 0; i < files; i += 1) {
+            String name = "dir" + (i % 10) + "/file" + i + ".txt";
+            File file = new File(Command.CWD, name);
+            file.getParentFile().mkdirs();
+            Utils.writeContents(file, name);
+            index.cacheBlob(name, FileStat.of(file), Utils.sha1(name));
+            if (i % 4 == 0) {
+                index.toStage(name, Utils.sha1(name));
+            }
+        }
+
+        byte[] javaCommit = Utils.serialize(commit);
+        byte[] binaryCommit = commit.encode();
+        byte[] javaIndex = Utils.serialize(index);
+        byte[] binaryIndex = index.encode();
+        System.out.printf("%d operations per round, staging area of %d "
+                          + "files%n%n", operations, files);
+        System.out.printf("%-14s %8s %8s %12s %12s%n", "", "bytes",
+                          "", "encode ns", "decode ns");
+        report("commit java", javaCommit.length, operations,
+               () -> Utils.serialize(commit).length,
+               () -> Utils.readObject(new ByteArrayInputStream(javaCommit),
+                                      Commit.class).getMessage().length());
+        report("commit binary", binaryCommit.length, operations,
+               () -> commit.encode().length,
+               () -> Commit.read(new ByteArrayInputStream(binaryCommit))
+                   .getMessage().length());
+        int indexOperations = Math.max(1, operations / files);
+        report("index java", javaIndex.length, indexOperations,
+               () -> Utils.serialize(index).length,
+               () -> Index.decode(javaIndex).getAdd().size());
+        report("index binary", binaryIndex.length, indexOperations,
+               () -> index.encode().length,
+               () -> Index.decode(binaryIndex).getAdd().size());
+    }
+
+    /** Prints the size SIZE of the objects LABEL and the best time per
+     *  operation of ENCODE and of DECODE, over rounds of OPERATIONS
+     *  operations. */
+    private static void report(String label, int size, int operations,
+                               Operation encode, Operation decode) {
+        System.out.printf("%-14s %8d %8s %12.0f %12.0f%n", label, size, "",
+                          time(encode, operations),
+                          time(decode, operations));
+    }
+
+    /** Returns the least time, in nanoseconds per operation, of ROUNDS
+     *  rounds of OPERATIONS runs of OPERATION. */
+    private static double time(Operation operation, int operations) {
+        long best = Long.MAX_VALUE;
+        long check = 0;
+        for (int r = 0; r < ROUNDS; r += 1) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < operations; i += 1) {
+                check += operation.run();
+            }
+            best = Math.min(best, System.nanoTime() - begin);
+        }
+        if (check == 0) {
+            System.out.println("(empty results)");
+        }
+        return (double) best / operations;
+    }
+
+}
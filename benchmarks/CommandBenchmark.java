@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Measures the commands on a repository made by RepoGenerator, as
+ *  the daemon runs them: in one JVM, with the caches of Command warm.
+ *  Each operation runs WARMUP untimed rounds and then ROUNDS timed
+ *  ones, each after an untimed setup, with the output discarded; the
+ *  mean, median and 90th percentile times are printed, with the bytes
+ *  allocated per round by all threads and the collections the timed
+ *  rounds caused.  The operations are
+ *
+ *     add:      staging one changed file.
+ *     commit:   committing one staged file.
+ *     status:   status with one file changed.
+ *     log:      the log of master.
+ *     split:    findSplitPointAdvanced of master and the other branch.
+ *     merge:    merging the other branch, reset away between rounds.
+ *     checkout: checking out the other branch and master in turn.
+ *
+ *  Must be run in an empty directory.  Optional arguments are the
+ *  numbers of commits (default 1000) and of files (default 1000), and
+ *  then the operations to run (default all).
+ *  @author Elizaveta Belkina
+ */
+class CommandBenchmark {
+
+    /** Number of untimed rounds per operation. */
+    private static final int WARMUP = 3;
+
+    /** Number of timed rounds per operation. */
+    private static final int ROUNDS = 10;
+
+    /** Names of the operations, in the order they run. */
+    private static final List<String> OPERATIONS =
+        List.of("add", "commit", "status", "log", "split", "merge",
+                "checkout");
+
+    /** Allocation counters of the threads. */
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** A step of an operation. */
+    private interface Step {
+        /** Runs the step for round ROUND, counting the warm-up rounds. */
+        void run(int round) throws Exception;
+    }
+
+    /** Runs the benchmark with optional ARGS COMMITS, FILES and
+     *  OPERATIONS. */
+    public static void main(String... args) throws Exception {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        List<String> operations = OPERATIONS;
+        if (args.length > 2) {
+            operations = Arrays.asList(args).subList(2, args.length);
+        }
+
+        long begin = System.nanoTime();
+        RepoGenerator generator = new RepoGenerator(commits, files);
+        String head = generator.generate();
+        System.out.printf("%d commits, %d files, head %s, generated in "
+                          + "%.1f s%n%n", commits, files, head,
+                          (System.nanoTime() - begin) / 1e9);
+        System.out.printf("%-9s %9s %9s %9s %13s %5s %7s%n", "operation",
+                          "mean ms", "p50 ms", "p90 ms", "alloc KiB/op",
+                          "gcs", "gc ms");
+        for (String operation : operations) {
+            run(operation, generator);
+        }
+    }
+
+    /** Measures OPERATION on the repository of GENERATOR. */
+    private static void run(String operation, RepoGenerator generator)
+            throws Exception {
+        int half = generator.files() / 2;
+        switch (operation) {
+        case "add":
+            measure(operation, round -> edit(generator, 2 * (round % half)),
+                    round -> Command.add(generator.path(
+                        2 * (round % half))));
+            Command.commit("benchmark adds");
+            break;
+        case "commit":
+            measure(operation, round -> {
+                    int i = 2 * (round % half);
+                    edit(generator, i);
+                    Command.add(generator.path(i));
+                }, round -> Command.commit("benchmark commit " + round));
+            break;
+        case "status":
+            edit(generator, 0);
+            measure(operation, round -> { }, round -> Command.status());
+            Command.add(generator.path(0));
+            Command.commit("benchmark status");
+            break;
+        case "log":
+            measure(operation, round -> { }, round -> Command.log());
+            break;
+        case "split":
+            Commit headCommit = Command.getCommit();
+            Commit otherCommit = Command.readCommit(
+                Command.branches().get(RepoGenerator.BRANCH));
+            measure(operation, round -> { },
+                    round -> Command.findSplitPointAdvanced(headCommit,
+                                                            otherCommit));
+            break;
+        case "merge":
+            String base = Utils.readContentsAsString(Command.HEAD);
+            measure(operation, round -> Command.reset(base),
+                    round -> Command.merge(RepoGenerator.BRANCH));
+            Command.reset(base);
+            break;
+        case "checkout":
+            measure(operation, round -> { },
+                    round -> Command.checkoutBranch(
+                        round % 2 == 0 ? RepoGenerator.BRANCH : "master"));
+            if (!Utils.readContentsAsString(Command.CURRENT_BRANCH)
+                .equals("master")) {
+                Command.checkoutBranch("master");
+            }
+            break;
+        default:
+            System.out.printf("Unknown operation %s; the operations are "
+                              + "%s.%n", operation, OPERATIONS);
+            break;
+        }
+    }
+
+    /** Prints the times, allocation and collections of OPERATION, named
+     *  NAME, each round of which follows SETUP, with the output of both
+     *  discarded. */
+    private static void measure(String name, Step setup, Step operation)
+            throws Exception {
+        long[] times = new long[ROUNDS];
+        long allocated = 0, collections = 0, collecting = 0;
+        PrintStream stdout = System.out;
+        System.gc();
+        try (PrintStream discard = new PrintStream(
+                 OutputStream.nullOutputStream())) {
+            System.setOut(discard);
+            for (int round = 0; round < WARMUP + ROUNDS; round += 1) {
+                setup.run(round);
+                HashMap<Long, Long> before = allocations();
+                long gcs = collections(), gcTime = collectionTime();
+                long start = System.nanoTime();
+                operation.run(round);
+                long time = System.nanoTime() - start;
+                if (round >= WARMUP) {
+                    times[round - WARMUP] = time;
+                    collections += collections() - gcs;
+                    collecting += collectionTime() - gcTime;
+                    for (Map.Entry<Long, Long> thread
+                             : allocations().entrySet()) {
+                        allocated += thread.getValue()
+                            - before.getOrDefault(thread.getKey(), 0L);
+                    }
+                }
+            }
+        } finally {
+            System.setOut(stdout);
+        }
+        long total = 0;
+        for (long time : times) {
+            total += time;
+        }
+        Arrays.sort(times);
+        System.out.printf("%-9s %9.2f %9.2f %9.2f %13.1f %5d %7d%n", name,
+                          total / 1e6 / ROUNDS, times[ROUNDS / 2] / 1e6,
+                          times[(ROUNDS * 9 + 9) / 10 - 1] / 1e6,
+                          allocated / 1024.0 / ROUNDS, collections,
+                          collecting);
+    }
+
+    /** Writes a new version of file I of the repository of GENERATOR,
+     *  different from every version written before. */
+    private static void edit(RepoGenerator generator, int i) {
+        edits += 1;
+        Utils.writeContents(new File(Command.CWD, generator.path(i)),
+                            RepoGenerator.contents(i, -edits));
+    }
+
+    /** Returns the bytes allocated so far by each live thread, by id.
+     *  The allocation of threads that end is lost, which the worker
+     *  threads of Gitlet rarely do while an operation runs. */
+    private static HashMap<Long, Long> allocations() {
+        long[] ids = THREADS.getAllThreadIds();
+        long[] bytes = THREADS.getThreadAllocatedBytes(ids);
+        HashMap<Long, Long> result = new HashMap<>();
+        for (int k = 0; k < ids.length; k += 1) {
+            if (bytes[k] >= 0) {
+                result.put(ids[k], bytes[k]);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of collections so far. */
+    private static long collections() {
+        long result = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, gc.getCollectionCount());
+        }
+        return result;
+    }
+
+    /** Returns the milliseconds spent collecting so far. */
+    private static long collectionTime() {
+        long result = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, gc.getCollectionTime());
+        }
+        return result;
+    }
+
+    /** Number of files edited so far. */
+    private static int edits;
+
+}
@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/** Measures diff on a wide tree with few changes: the time to diff the
+ *  working files against the staging area, the staging area against
+ *  the head commit, and two commits.  The files are spread over
+ *  directories of DIR_SIZE files each, and CHANGES of them are then
+ *  edited.  Must be run in an empty directory.  Optional arguments are
+ *  the number of files (default 10000) and of changed files (default
+ *  10).
+ *  @author Elizaveta Belkina
+ */
+class DiffBenchmark {
+
+    /** Number of timed rounds per form of diff; the fastest counts. */
+    private static final int ROUNDS = 7;
+
+    /** Number of files per directory. */
+    private static final int DIR_SIZE = 100;
+
+    /** Lines per file. */
+    private static final int LINES = 50;
+
+    /** An age, in milliseconds, given to the files written, so that
+     *  their stat data is trusted rather than racy. */
+    private static final long AGE = 3_600_000;
+
+    /** A form of diff. */
+    private interface Operation {
+        /** Runs the diff once. */
+        void run();
+    }
+
+    /** Runs the benchmark with optional ARGS FILES and CHANGES. */
+    public static void main(String... args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int changes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        Command.init();
+        long old = System.currentTimeMillis() - AGE;
+        for (int i = 0; i < files; i += 1) {
+            File file = file(i);
+            file.getParentFile().mkdirs();
+            Utils.writeContents(file, contents(i, -1));
+            file.setLastModified(old);
+        }
+        Command.add(".");
+        Command.commit("wide tree");
+        String first = Utils.readContentsAsString(Command.HEAD);
+        int spacing = Math.max(1, files / Math.max(1, changes));
+        for (int i = 0; i < files && i / spacing < changes; i += spacing) {
+            Utils.writeContents(file(i), contents(i, i % LINES));
+        }
+
+        System.out.printf("%d files, %d changed%n%n", files, changes);
+        System.out.printf("%-22s %10s%n", "diff", "ms");
+        time("working files", Command::diff);
+        for (int i = 0; i < files && i / spacing < changes; i += spacing) {
+            Command.add(file(i).getPath().substring(
+                Command.CWD.getPath().length() + 1));
+        }
+        time("--staged", Command::diffStaged);
+        Command.commit("few changes");
+        String second = Utils.readContentsAsString(Command.HEAD);
+        time("two commits", () -> Command.diff(first, second));
+    }
+
+    /** Prints the fastest of ROUNDS runs of OPERATION, named NAME, with
+     *  its output discarded. */
+    private static void time(String name, Operation operation) {
+        PrintStream stdout = System.out;
+        long best = Long.MAX_VALUE;
+        try (PrintStream discard = new PrintStream(
+                 OutputStream.nullOutputStream())) {
+            System.setOut(discard);
+            for (int r = 0; r < ROUNDS; r += 1) {
+                long begin = System.nanoTime();
+                operation.run();
+                best = Math.min(best, System.nanoTime() - begin);
+            }
+        } finally {
+            System.setOut(stdout);
+        }
+        System.out.printf("%-22s %10.2f%n", name, best / 1e6);
+    }
+
+    /** Returns the working file I. */
+    private static File file(int i) {
+        return new File(Command.CWD,
+                        "dir" + (i / DIR_SIZE) + "/file" + i + ".txt");
+    }
+
+    /** Returns the contents of file I with line CHANGED, if any,
+     *  edited. */
+    private static String contents(int i, int changed) {
+        StringBuilder result = new StringBuilder();
+        for (int line = 0; line < LINES; line += 1) {
+            result.append(line == changed ? "edited" : "line " + line)
+                .append(" of file ").append(i).append('\n');
+        }
+        return result.toString();
+    }
+
+}
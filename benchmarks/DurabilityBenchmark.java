@@ -0,0 +1,58 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Arrays;
+
+/** Measures the latency of commit at each durability level: the time of
+ *  Command.commit after staging one changed file, which writes a blob
+ *  beforehand and then a tree, a commit and two refs.  Must be run in
+ *  an empty directory.  The optional argument is the number of commits
+ *  timed per level (default 100).
+ *  @author Elizaveta Belkina
+ */
+class DurabilityBenchmark {
+
+    /** Number of untimed rounds made first.  Each round commits once at
+     *  each level in turn, so that warming up and drift in the state of
+     *  the machine affect all levels alike. */
+    private static final int WARMUP = 10;
+
+    /** Runs the benchmark with optional ARGS COMMITS. */
+    public static void main(String... args) {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        Command.init();
+        File file = new File(Command.CWD, "file.txt");
+        Transaction.Durability[] levels = Transaction.Durability.values();
+        long[][] times = new long[levels.length][commits];
+        for (int c = -WARMUP; c < commits; c += 1) {
+            for (int l = 0; l < levels.length; l += 1) {
+                System.setProperty(Transaction.DURABILITY_PROPERTY,
+                                   levels[l].name());
+                String version = (c + WARMUP) + "." + l;
+                Utils.writeContents(file, "version " + version + "\n");
+                Command.add(file.getName());
+                long begin = System.nanoTime();
+                Command.commit("version " + version);
+                if (c >= 0) {
+                    times[l][c] = System.nanoTime() - begin;
+                }
+            }
+        }
+
+        System.out.printf("%d commits per level%n%n", commits);
+        System.out.printf("%-6s %10s %10s %10s%n", "level", "median ms",
+                          "p90 ms", "mean ms");
+        for (int l = 0; l < levels.length; l += 1) {
+            long[] sorted = times[l].clone();
+            Arrays.sort(sorted);
+            System.out.printf("%-6s %10.3f %10.3f %10.3f%n",
+                              levels[l].name().toLowerCase(),
+                              sorted[commits / 2] / 1e6,
+                              sorted[commits * 9 / 10] / 1e6,
+                              Arrays.stream(sorted).average().orElse(0)
+                              / 1e6);
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/** Measures the line-level three-way merge of large text files with
+ *  scattered edits: the time to split the three versions into lines,
+ *  to intern them and to diff both sides against the base, and the
+ *  time of the whole merge, which interns and diffs again as it writes
+ *  the result, all in memory.  The total is that of splitting and
+ *  merging, as Command.mergeFile does.  The base is made of random
+ *  lines; each side replaces, inserts or deletes lines at its own
+ *  positions, and one edit in CLASH_EVERY changes the same line as the
+ *  other side, so that some conflicts are found.  Optional arguments
+ *  are the size of the base in MiB (default 100) and the number of
+ *  edits per side (default 1000).
+ *  @author Elizaveta Belkina
+ */
+class MergeBenchmark {
+
+    /** Number of timed rounds; the fastest counts. */
+    private static final int ROUNDS = 5;
+
+    /** One pair of edits in this many changes the same line on both
+     *  sides. */
+    private static final int CLASH_EVERY = 100;
+
+    /** Seed of the generated texts, so that runs are comparable. */
+    private static final long SEED = 61;
+
+    /** Runs the benchmark with optional ARGS MEBIBYTES and EDITS. */
+    public static void main(String... args) throws IOException {
+        int mebibytes = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        Random random = new Random(SEED);
+        String[] base = generate(random, (long) mebibytes << 20);
+        String[][] sides = edit(random, base, edits);
+        byte[] baseBytes = join(base);
+        byte[] oursBytes = join(sides[0]);
+        byte[] theirsBytes = join(sides[1]);
+        System.out.printf("base %,d bytes in %,d lines, %d edits per side"
+                          + "%n%n", baseBytes.length, base.length, edits);
+
+        long[] best = new long[5];
+        Arrays.fill(best, Long.MAX_VALUE);
+        boolean conflict = false;
+        long written = 0;
+        for (int round = 0; round < ROUNDS; round += 1) {
+            long start = System.nanoTime();
+            Lines baseLines = new Lines(baseBytes);
+            Lines ours = new Lines(oursBytes);
+            Lines theirs = new Lines(theirsBytes);
+            long split = System.nanoTime();
+            int ids = Lines.intern(baseLines, ours, theirs);
+            long interned = System.nanoTime();
+            List<Diff.Edit> oursEdits = Diff.diff(baseLines, ours, ids);
+            List<Diff.Edit> theirsEdits = Diff.diff(baseLines, theirs, ids);
+            long diffed = System.nanoTime();
+            CountingStream out = new CountingStream();
+            conflict = LineMerge.merge(baseLines, ours, theirs, out);
+            long merged = System.nanoTime();
+            written = out._count;
+            long[] times = { split - start, interned - split,
+                             diffed - interned, merged - diffed,
+                             split - start + merged - diffed };
+            for (int i = 0; i < times.length; i += 1) {
+                best[i] = Math.min(best[i], times[i]);
+            }
+            if (round == 0) {
+                System.out.printf("%,d and %,d edits found, %,d distinct "
+                                  + "lines%n", oursEdits.size(),
+                                  theirsEdits.size(), ids);
+            }
+        }
+        System.out.printf("merge of %,d bytes, %s%n%n", written,
+                          conflict ? "with conflicts" : "clean");
+        String[] phases = { "split", "intern", "diff both", "merge",
+                            "total" };
+        System.out.printf("%-10s %10s %10s%n", "phase", "ms", "MiB/s");
+        for (int i = 0; i < phases.length; i += 1) {
+            System.out.printf("%-10s %10.1f %10.1f%n", phases[i],
+                              best[i] / 1e6,
+                              3.0 * baseBytes.length / (1 << 20)
+                              / (best[i] / 1e9));
+        }
+        System.out.println("\nMiB/s counts the bytes of all three "
+                           + "versions.");
+    }
+
+    /** Returns random lines of about SIZE bytes in all, each numbered so
+     *  that most lines are unique, as in source code and logs. */
+    private static String[] generate(Random random, long size) {
+        int count = (int) (size / 41);
+        String[] result = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            result[i] = i + " " + Long.toHexString(random.nextLong())
+                + Long.toHexString(random.nextLong()) + "\n";
+        }
+        return result;
+    }
+
+    /** Returns our and their versions of BASE, each made by EDITS edits
+     *  at scattered lines. */
+    private static String[][] edit(Random random, String[] base,
+                                   int edits) {
+        String[][] result = { base.clone(), base.clone() };
+        int spacing = Math.max(4, base.length / (2 * edits + 1));
+        for (int e = 0; e < 2 * edits && (e + 1) * spacing < base.length;
+             e += 1) {
+            int line = (e + 1) * spacing;
+            int side = e % 2;
+            if (e % (2 * CLASH_EVERY) == 1) {
+                line = e * spacing;
+            }
+            String[] text = result[side];
+            switch (random.nextInt(3)) {
+            case 0:
+                text[line] = "ours and theirs differ " + side + "\n";
+                break;
+            case 1:
+                text[line] = text[line] + "inserted by " + side + "\n";
+                break;
+            default:
+                text[line] = "";
+                break;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the UTF-8 bytes of LINES joined. */
+    private static byte[] join(String[] lines) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            result.write(bytes, 0, bytes.length);
+        }
+        return result.toByteArray();
+    }
+
+    /** A stream discarding what is written to it but its length. */
+    private static class CountingStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+            _count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            _count += len;
+        }
+
+        /** Number of bytes written. */
+        private long _count;
+    }
+
+}
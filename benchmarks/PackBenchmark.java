@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Random;
+
+/** Measures packing with delta compression on large, slowly changing
+ *  text files: bytes on disk before and after 'pack', and the
+ *  throughput of resetting to the oldest and newest commits from loose
+ *  objects and from the pack.  Must be run in an empty directory.
+ *  Optional arguments are the number of files (default 20), lines per
+ *  file (default 5000) and commits (default 50); each commit changes
+ *  a few lines of a few files.
+ *  @author Elizaveta Belkina
+ */
+class PackBenchmark {
+
+    /** Number of timed resets. */
+    private static final int ROUNDS = 5;
+
+    /** Runs the benchmark with optional ARGS FILES, LINES and
+     *  COMMITS. */
+    public static void main(String... args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int lines = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int commits = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        Random random = new Random(61);
+        String[][] contents = new String[files][lines];
+        for (int f = 0; f < files; f += 1) {
+            for (int l = 0; l < lines; l += 1) {
+                contents[f][l] = line(random);
+            }
+        }
+        Command.init();
+        String first = null;
+        for (int c = 0; c < commits; c += 1) {
+            for (int f = 0; f < files; f += 1) {
+                if (c > 0 && random.nextInt(4) != 0) {
+                    continue;
+                }
+                for (int k = 0; c > 0 && k < 3; k += 1) {
+                    contents[f][random.nextInt(lines)] = line(random);
+                }
+                String name = "config" + f + ".txt";
+                Utils.writeContents(new File(Command.CWD, name),
+                                    String.join("\n", contents[f]));
+                Command.add(name);
+            }
+            Command.commit("version " + c);
+            if (first == null) {
+                first = Utils.readContentsAsString(Command.HEAD);
+            }
+        }
+        String last = Utils.readContentsAsString(Command.HEAD);
+
+        long loose = size(Command.GIT);
+        double looseRate = resetRate(first, last);
+        Command.pack();
+        long packed = size(Command.GIT);
+        double packedRate = resetRate(first, last);
+        System.out.printf("%d files x %d lines, %d commits%n",
+                          files, lines, commits);
+        System.out.printf("loose  %12d bytes  %8.1f resets/s%n",
+                          loose, looseRate);
+        System.out.printf("packed %12d bytes  %8.1f resets/s  "
+                          + "(%.1fx smaller)%n",
+                          packed, packedRate, (double) loose / packed);
+    }
+
+    /** Returns the number of resets per second alternating between
+     *  commits FIRST and LAST. */
+    private static double resetRate(String first, String last) {
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r += 1) {
+            Command.reset(first);
+            Command.reset(last);
+        }
+        return 2 * ROUNDS / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /** Returns the total size of the files under DIR. */
+    private static long size(File dir) {
+        long result = 0;
+        for (File file : dir.listFiles()) {
+            result += file.isDirectory() ? size(file) : file.length();
+        }
+        return result;
+    }
+
+    /** Returns a random line of a generated configuration file, using
+     *  RANDOM. */
+    private static String line(Random random) {
+        return String.format("option.%08x = %d", random.nextInt(),
+                             random.nextInt(100000));
+    }
+
+}
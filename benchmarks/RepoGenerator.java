@@ -0,0 +1,242 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.TreeMap;
+
+/** Generates synthetic repositories of a given number of commits and
+ *  tracked files, the same every time for the same sizes, so that runs
+ *  of benchmarks on different builds are comparable.  After the initial
+ *  commit, one commit adds all the files, spread over directories of
+ *  DIR_SIZE entries each, and each later commit on master changes one
+ *  to MAX_CHANGES files with even numbers.  Branch BRANCH forks halfway
+ *  and has BRANCH_COMMITS commits of its own changing files with odd
+ *  numbers, so that merging it into master is clean.  Objects, refs and
+ *  indexes are written straight into the stores at durability NONE,
+ *  which is much faster than running the commands, and the working
+ *  files are those of the head of master.  Run on its own, it generates
+ *  a repository in the current directory, which must be empty; the
+ *  optional arguments are the numbers of commits (default 1000) and of
+ *  files (default 1000).
+ *  @author Elizaveta Belkina
+ */
+class RepoGenerator {
+
+    /** Seed of the generated changes. */
+    static final long SEED = 61;
+
+    /** Most files or subdirectories per directory. */
+    static final int DIR_SIZE = 32;
+
+    /** Most files changed per commit. */
+    static final int MAX_CHANGES = 3;
+
+    /** Name of the branch forked from master. */
+    static final String BRANCH = "other";
+
+    /** Number of commits on BRANCH after the fork. */
+    static final int BRANCH_COMMITS = 10;
+
+    /** Lines per file. */
+    static final int LINES = 8;
+
+    /** Time of the first generated commit; each later one is a minute
+     *  after its parent. */
+    private static final LocalDateTime START =
+        LocalDateTime.of(2020, 1, 1, 0, 0);
+
+    /** Format of commit timestamps. */
+    private static final DateTimeFormatter FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /** Generates a repository with optional ARGS COMMITS and FILES in the
+     *  current directory. */
+    public static void main(String... args) {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long begin = System.nanoTime();
+        String head = new RepoGenerator(commits, files).generate();
+        System.out.printf("%d commits, %d files, head %s, %.1f s%n",
+                          commits, files, head,
+                          (System.nanoTime() - begin) / 1e9);
+    }
+
+    /** A generator of repositories of COMMITS commits, counting the
+     *  initial one, and FILES files.  COMMITS must be at least 2 and
+     *  FILES at least 2. */
+    RepoGenerator(int commits, int files) {
+        if (commits < 2 || files < 2) {
+            throw Utils.error("Need at least 2 commits and 2 files.");
+        }
+        _commits = commits;
+        _files = files;
+        _random = new Random(SEED);
+        _versions = new int[files];
+        int depth = 0;
+        for (long span = DIR_SIZE; span < files; span *= DIR_SIZE) {
+            depth += 1;
+        }
+        _depth = depth;
+    }
+
+    /** Generates the repository in the current directory, which must
+     *  hold none, and returns the id of the head of master. */
+    String generate() {
+        String durability =
+            System.getProperty(Transaction.DURABILITY_PROPERTY);
+        System.setProperty(Transaction.DURABILITY_PROPERTY,
+                           Transaction.Durability.NONE.name());
+        try {
+            Command.init();
+            String parent = Utils.readContentsAsString(Command.HEAD);
+            TreeMap<String, String> all = new TreeMap<>();
+            for (int i = 0; i < _files; i += 1) {
+                all.put(path(i), storeBlob(i));
+            }
+            String tree = Tree.write(all, Command.TREE_STORE);
+            parent = writeCommit("add " + _files + " files", parent, tree, 1);
+
+            int fork = _commits / 2;
+            String forkCommit = parent, forkTree = tree;
+            int[] forkVersions = _versions.clone();
+            for (int c = 2; c < _commits; c += 1) {
+                tree = change(tree, 0);
+                parent = writeCommit("change " + c, parent, tree, c);
+                if (c == fork) {
+                    forkCommit = parent;
+                    forkTree = tree;
+                    forkVersions = _versions.clone();
+                }
+            }
+            String head = parent;
+            int[] headVersions = _versions;
+
+            _versions = forkVersions;
+            parent = forkCommit;
+            tree = forkTree;
+            for (int c = 0; c < BRANCH_COMMITS; c += 1) {
+                tree = change(tree, 1);
+                parent = writeCommit(BRANCH + " change " + c, parent, tree,
+                                     _commits + c);
+            }
+            _versions = headVersions;
+
+            Transaction transaction = Transaction.begin();
+            Command.branches().set(transaction, "master", head);
+            Command.branches().set(transaction, BRANCH, parent);
+            transaction.setRef(Command.HEAD, head);
+            transaction.commit();
+            Command.rebuildIndexes();
+            for (int i = 0; i < _files; i += 1) {
+                File file = new File(Command.CWD, path(i));
+                file.getParentFile().mkdirs();
+                Utils.writeContents(file, contents(i, _versions[i]));
+            }
+            return head;
+        } finally {
+            if (durability == null) {
+                System.clearProperty(Transaction.DURABILITY_PROPERTY);
+            } else {
+                System.setProperty(Transaction.DURABILITY_PROPERTY,
+                                   durability);
+            }
+        }
+    }
+
+    /** Returns the path of file I, under one directory per level of
+     *  _depth. */
+    String path(int i) {
+        char[] digits = new char[_depth];
+        int dir = i / DIR_SIZE;
+        StringBuilder result = new StringBuilder();
+        for (int level = 0; level < _depth; level += 1) {
+            digits[level] = Character.forDigit(dir % DIR_SIZE, DIR_SIZE);
+            dir /= DIR_SIZE;
+        }
+        for (int level = _depth - 1; level >= 0; level -= 1) {
+            result.append('d').append(digits[level]).append('/');
+        }
+        return result.append("file").append(i).append(".txt").toString();
+    }
+
+    /** Returns the contents of file I at VERSION. */
+    static String contents(int i, int version) {
+        StringBuilder result = new StringBuilder();
+        for (int line = 0; line < LINES; line += 1) {
+            result.append("line ").append(line).append(" of file ").append(i)
+                .append(line == i % LINES ? " version " + version : "")
+                .append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Returns the number of files. */
+    int files() {
+        return _files;
+    }
+
+    /** Returns the id of the tree made from TREE by changing one to
+     *  MAX_CHANGES random files whose numbers have PARITY. */
+    private String change(String tree, int parity) {
+        TreeMap<String, String> changes = new TreeMap<>();
+        int count = 1 + _random.nextInt(MAX_CHANGES);
+        for (int k = 0; k < count; k += 1) {
+            int i = 2 * _random.nextInt((_files - parity + 1) / 2) + parity;
+            _versions[i] += 1;
+            changes.put(path(i), storeBlob(i));
+        }
+        return Tree.update(tree, changes, Command.TREE_STORE);
+    }
+
+    /** Stores the commit number C, with MESSAGE, PARENT and TREE, and
+     *  returns its id. */
+    private String writeCommit(String message, String parent, String tree,
+                               int c) {
+        Commit commit = new Commit(message, parent,
+                                   FORMAT.format(START.plusMinutes(c)), null);
+        commit.setTree(tree);
+        String id = commit.createId();
+        Commit.write(commit, Command.COMMIT_STORE);
+        return id;
+    }
+
+    /** Stores the current version of file I as a blob, unless it is
+     *  stored already, and returns its id. */
+    private String storeBlob(int i) {
+        byte[] contents = contents(i, _versions[i])
+            .getBytes(StandardCharsets.UTF_8);
+        String id = Utils.sha1(contents);
+        if (!Command.BLOB_STORE.contains(id)) {
+            ByteArrayOutputStream stored = new ByteArrayOutputStream();
+            try (OutputStream out = Blob.compress(stored)) {
+                out.write(contents);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            Command.BLOB_STORE.write(id, stored.toByteArray());
+        }
+        return id;
+    }
+
+    /** Number of commits, counting the initial one. */
+    private final int _commits;
+
+    /** Number of files. */
+    private final int _files;
+
+    /** Source of the changes. */
+    private final Random _random;
+
+    /** Number of directory levels above the files. */
+    private final int _depth;
+
+    /** The version of each file in the commit being generated. */
+    private int[] _versions;
+
+}
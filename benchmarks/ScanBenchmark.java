@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.TreeMap;
+
+/** Measures the wall-clock time of rebuilding the commit journal, which
+ *  is what global-log and find do when there is no index, against the
+ *  number of threads reading commits.  Must be run in an empty
+ *  directory.  The first optional argument is the number of commits
+ *  (default 100000), written straight into the commit store; the rest
+ *  are the thread counts to try (default 1, 2, 4, 8, 16 and 32).
+ *  @author Elizaveta Belkina
+ */
+class ScanBenchmark {
+
+    /** Number of timed rebuilds per thread count; the fastest counts. */
+    private static final int ROUNDS = 3;
+
+    /** Number of files tracked by each generated commit. */
+    private static final int FILES = 8;
+
+    /** Runs the benchmark with optional ARGS COMMITS and THREADS.... */
+    public static void main(String... args) {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int[] threads = { 1, 2, 4, 8, 16, 32 };
+        if (args.length > 1) {
+            threads = new int[args.length - 1];
+            for (int i = 1; i < args.length; i += 1) {
+                threads[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        Command.init();
+        DateTimeFormatter format =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        String parent = Utils.readContentsAsString(Command.HEAD);
+        for (int c = 0; c < commits; c += 1) {
+            Commit commit = new Commit("change " + c, parent,
+                format.format(start.plusSeconds(c)), null);
+            TreeMap<String, String> files = new TreeMap<>();
+            for (int f = 0; f < FILES; f += 1) {
+                files.put("file" + f + ".txt",
+                          Utils.sha1("blob " + c + " " + f));
+            }
+            commit.setContents(files);
+            parent = commit.createId();
+            Commit.write(commit, Command.COMMIT_STORE);
+        }
+
+        System.out.printf("%d commits, %d processors%n", commits + 1,
+                          Runtime.getRuntime().availableProcessors());
+        double serial = 0;
+        for (int t : threads) {
+            System.setProperty(ParallelScan.THREADS_PROPERTY,
+                               Integer.toString(t));
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r < ROUNDS; r += 1) {
+                long begin = System.nanoTime();
+                Command.rebuildJournal();
+                best = Math.min(best, System.nanoTime() - begin);
+            }
+            double seconds = best / 1e9;
+            if (serial == 0) {
+                serial = seconds;
+            }
+            System.out.printf("%3d threads %8.3f s  %5.2fx%n",
+                              t, seconds, serial / seconds);
+        }
+    }
+
+}